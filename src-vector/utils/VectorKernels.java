@@ -0,0 +1,236 @@
+package utils;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * the kernels on the vectors of the widest species the CPU supports, with a scalar loop
+ * for the elements that do not fill a whole vector. this class needs the incubating
+ * jdk.incubator.vector module to compile and to run, so it lives apart from the other
+ * sources and is only loaded by Kernels if it is there
+ */
+final class VectorKernels extends Kernels {
+
+	private static final VectorSpecies<Double> D = DoubleVector.SPECIES_PREFERRED;
+	private static final VectorSpecies<Float> F = FloatVector.SPECIES_PREFERRED;
+
+	@Override
+	public String getName() {
+		return "vector " + D.vectorBitSize() + " bit";
+	}
+
+	@Override
+	public void add(double[] a, double[] b, double[] dst, int n) {
+		int i = 0;
+		for(int bound = D.loopBound(n); i < bound; i += D.length()) {
+			DoubleVector.fromArray(D, a, i).add(DoubleVector.fromArray(D, b, i)).intoArray(dst, i);
+		}
+		for(; i < n; i++) {
+			dst[i] = a[i] + b[i];
+		}
+	}
+
+	@Override
+	public void add(float[] a, float[] b, float[] dst, int n) {
+		int i = 0;
+		for(int bound = F.loopBound(n); i < bound; i += F.length()) {
+			FloatVector.fromArray(F, a, i).add(FloatVector.fromArray(F, b, i)).intoArray(dst, i);
+		}
+		for(; i < n; i++) {
+			dst[i] = a[i] + b[i];
+		}
+	}
+
+	@Override
+	public void sub(double[] a, double[] b, double[] dst, int n) {
+		int i = 0;
+		for(int bound = D.loopBound(n); i < bound; i += D.length()) {
+			DoubleVector.fromArray(D, a, i).sub(DoubleVector.fromArray(D, b, i)).intoArray(dst, i);
+		}
+		for(; i < n; i++) {
+			dst[i] = a[i] - b[i];
+		}
+	}
+
+	@Override
+	public void sub(float[] a, float[] b, float[] dst, int n) {
+		int i = 0;
+		for(int bound = F.loopBound(n); i < bound; i += F.length()) {
+			FloatVector.fromArray(F, a, i).sub(FloatVector.fromArray(F, b, i)).intoArray(dst, i);
+		}
+		for(; i < n; i++) {
+			dst[i] = a[i] - b[i];
+		}
+	}
+
+	@Override
+	public void mul(double[] a, double[] b, double[] dst, int n) {
+		int i = 0;
+		for(int bound = D.loopBound(n); i < bound; i += D.length()) {
+			DoubleVector.fromArray(D, a, i).mul(DoubleVector.fromArray(D, b, i)).intoArray(dst, i);
+		}
+		for(; i < n; i++) {
+			dst[i] = a[i] * b[i];
+		}
+	}
+
+	@Override
+	public void mul(float[] a, float[] b, float[] dst, int n) {
+		int i = 0;
+		for(int bound = F.loopBound(n); i < bound; i += F.length()) {
+			FloatVector.fromArray(F, a, i).mul(FloatVector.fromArray(F, b, i)).intoArray(dst, i);
+		}
+		for(; i < n; i++) {
+			dst[i] = a[i] * b[i];
+		}
+	}
+
+	@Override
+	public void div(double[] a, double[] b, double[] dst, int n) {
+		int i = 0;
+		for(int bound = D.loopBound(n); i < bound; i += D.length()) {
+			DoubleVector.fromArray(D, a, i).div(DoubleVector.fromArray(D, b, i)).intoArray(dst, i);
+		}
+		for(; i < n; i++) {
+			dst[i] = a[i] / b[i];
+		}
+	}
+
+	@Override
+	public void div(float[] a, float[] b, float[] dst, int n) {
+		int i = 0;
+		for(int bound = F.loopBound(n); i < bound; i += F.length()) {
+			FloatVector.fromArray(F, a, i).div(FloatVector.fromArray(F, b, i)).intoArray(dst, i);
+		}
+		for(; i < n; i++) {
+			dst[i] = a[i] / b[i];
+		}
+	}
+
+	@Override
+	public void scale(double[] a, double s, double[] dst, int n) {
+		int i = 0;
+		for(int bound = D.loopBound(n); i < bound; i += D.length()) {
+			DoubleVector.fromArray(D, a, i).mul(s).intoArray(dst, i);
+		}
+		for(; i < n; i++) {
+			dst[i] = s * a[i];
+		}
+	}
+
+	@Override
+	public void scale(float[] a, float s, float[] dst, int n) {
+		int i = 0;
+		for(int bound = F.loopBound(n); i < bound; i += F.length()) {
+			FloatVector.fromArray(F, a, i).mul(s).intoArray(dst, i);
+		}
+		for(; i < n; i++) {
+			dst[i] = s * a[i];
+		}
+	}
+
+	@Override
+	public void shift(double[] a, int off, double s, double[] dst, int n) {
+		int i = 0;
+		for(int bound = D.loopBound(n); i < bound; i += D.length()) {
+			DoubleVector.fromArray(D, a, off + i).add(s).intoArray(dst, off + i);
+		}
+		for(; i < n; i++) {
+			dst[off + i] = a[off + i] + s;
+		}
+	}
+
+	@Override
+	public void shift(float[] a, int off, float s, float[] dst, int n) {
+		int i = 0;
+		for(int bound = F.loopBound(n); i < bound; i += F.length()) {
+			FloatVector.fromArray(F, a, off + i).add(s).intoArray(dst, off + i);
+		}
+		for(; i < n; i++) {
+			dst[off + i] = a[off + i] + s;
+		}
+	}
+
+	@Override
+	public void fill(double[] dst, double v, int n) {
+		DoubleVector fill = DoubleVector.broadcast(D, v);
+		int i = 0;
+		for(int bound = D.loopBound(n); i < bound; i += D.length()) {
+			fill.intoArray(dst, i);
+		}
+		for(; i < n; i++) {
+			dst[i] = v;
+		}
+	}
+
+	@Override
+	public void fill(float[] dst, float v, int n) {
+		FloatVector fill = FloatVector.broadcast(F, v);
+		int i = 0;
+		for(int bound = F.loopBound(n); i < bound; i += F.length()) {
+			fill.intoArray(dst, i);
+		}
+		for(; i < n; i++) {
+			dst[i] = v;
+		}
+	}
+
+	@Override
+	public double sum(double[] a, int off, int n) {
+		DoubleVector acc = DoubleVector.zero(D);
+		int i = 0;
+		for(int bound = D.loopBound(n); i < bound; i += D.length()) {
+			acc = acc.add(DoubleVector.fromArray(D, a, off + i));
+		}
+		double sum = acc.reduceLanes(VectorOperators.ADD);
+		for(; i < n; i++) {
+			sum += a[off + i];
+		}
+		return sum;
+	}
+
+	@Override
+	public double sum(float[] a, int off, int n) {
+		FloatVector acc = FloatVector.zero(F);
+		int i = 0;
+		for(int bound = F.loopBound(n); i < bound; i += F.length()) {
+			acc = acc.add(FloatVector.fromArray(F, a, off + i));
+		}
+		double sum = acc.reduceLanes(VectorOperators.ADD);
+		for(; i < n; i++) {
+			sum += a[off + i];
+		}
+		return sum;
+	}
+
+	@Override
+	public double dot(double[] a, int aoff, double[] b, int boff, int n) {
+		DoubleVector acc = DoubleVector.zero(D);
+		int i = 0;
+		for(int bound = D.loopBound(n); i < bound; i += D.length()) {
+			acc = DoubleVector.fromArray(D, a, aoff + i).fma(DoubleVector.fromArray(D, b, boff + i), acc);
+		}
+		double sum = acc.reduceLanes(VectorOperators.ADD);
+		for(; i < n; i++) {
+			sum += a[aoff + i] * b[boff + i];
+		}
+		return sum;
+	}
+
+	@Override
+	public double dot(float[] a, int aoff, float[] b, int boff, int n) {
+		FloatVector acc = FloatVector.zero(F);
+		int i = 0;
+		for(int bound = F.loopBound(n); i < bound; i += F.length()) {
+			acc = FloatVector.fromArray(F, a, aoff + i).fma(FloatVector.fromArray(F, b, boff + i), acc);
+		}
+		double sum = acc.reduceLanes(VectorOperators.ADD);
+		for(; i < n; i++) {
+			sum += a[aoff + i] * b[boff + i];
+		}
+		return sum;
+	}
+
+}
@@ -0,0 +1,532 @@
+package bench;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.BufferedOutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Random;
+
+import net.Checkpoint;
+import net.NeuralNetwork;
+import net.Optimizer;
+import net.QuantizedNetwork;
+import net.SparseNetwork;
+import net.TrainingListener;
+import net.Workspace;
+import utils.Activation;
+import utils.Arena;
+import utils.Cost;
+import utils.Dataset;
+import utils.Derivative;
+import utils.ImageSet;
+import utils.MNIST;
+import utils.Matrix;
+import utils.Precision;
+import utils.SparseBatch;
+import utils.SparseMatrix;
+
+/**
+ * a small benchmark suite in the spirit of JMH without any dependencies. every benchmark
+ * is warmed up first and then measured in several iterations of a fixed amount of operations,
+ * reporting the time per operation together with the bytes allocated per operation and the
+ * time spent in garbage collection, so every performance change can be compared to a baseline.
+ *
+ * usage: java bench.Benchmarks [filter...], where only the benchmarks whose names contain
+ * one of the filters run. the selected kernels are checked by KernelCheck first
+ */
+public class Benchmarks {
+
+	private static final int WARMUP = 5;
+	private static final int ITERATIONS = 10;
+
+	/**
+	 * the time one iteration should roughly take
+	 */
+	private static final long ITERATION_NANOS = 200_000_000L;
+
+	/**
+	 * keeps the results of the benchmarks alive so that the JIT can not remove them
+	 */
+	public static volatile Object sink;
+
+	/**
+	 * the bean that counts the bytes allocated by every thread, null if the JVM does not offer it,
+	 * in which case no bytes are reported
+	 */
+	private static final com.sun.management.ThreadMXBean THREADS = threads();
+
+	private final List<String> filters;
+	private final Random rand = new Random(42);
+
+	private Benchmarks(List<String> filters) {
+		this.filters = filters;
+	}
+
+	public static void main(String[] args) throws IOException {
+		Benchmarks b = new Benchmarks(List.of(args));
+		KernelCheck.check();
+
+		System.out.printf("%-48s %14s %12s %14s %10s%n", "Benchmark", "ns/op", "error", "B/op", "gc ms");
+		b.matrices(Precision.DOUBLE);
+		b.matrices(Precision.SINGLE);
+		b.network(Precision.DOUBLE);
+		b.network(Precision.SINGLE);
+		b.pruning(Precision.DOUBLE);
+		b.pruning(Precision.SINGLE);
+		b.offHeap(Precision.DOUBLE);
+		b.offHeap(Precision.SINGLE);
+		b.loading();
+		b.checkpoints();
+	}
+
+	/*** MATRIX ***/
+
+	private void matrices(Precision p) {
+		String s = p == Precision.SINGLE ? ":single" : ":double";
+
+		//the shapes of the {784, 16, 16, 10} network with a batch of 32
+		String[] products = {"Matrix.dot 16x784*784x1" + s, "Matrix.dot 16x784*784x32" + s, "Matrix.dot 16x16*16x32" + s, "Matrix.dot 10x16*16x32" + s,
+				"Matrix.multiplyTransposeA 10x16^T*10x32" + s, "Matrix.multiplyTransposeA 16x16^T*16x32" + s,
+				"Matrix.multiplyTransposeB 16x32*784x32^T" + s, "Matrix.multiplyTransposeB 16x32*16x32^T" + s,
+				"Matrix.dense 16x784*784x32" + s, "Matrix.dot+addColumn+vec 16x784*784x32" + s, "Matrix.denseBackward 16x16^T*16x32" + s,
+				"Matrix.denseBackwardOut 16x16^T*16x32" + s, "Matrix.multiplyTransposeA+pro 16x16^T*16x32" + s};
+		if(passes(products)) {
+			Matrix w0 = random(16, 784, p), w1 = random(16, 16, p), w2 = random(10, 16, p);
+			Matrix x1 = random(784, 1, p), x32 = random(784, 32, p);
+			Matrix h = random(16, 32, p), o = random(10, 32, p);
+			Matrix h1 = new Matrix(16, 1, p), h32 = new Matrix(16, 32, p), o32 = new Matrix(10, 32, p);
+			Matrix g0 = new Matrix(16, 784, p), g1 = new Matrix(16, 16, p);
+
+			run(products[0], () -> Matrix.dot(w0, x1, h1));
+			run(products[1], () -> Matrix.dot(w0, x32, h32));
+			run(products[2], () -> Matrix.dot(w1, h, h32));
+			run(products[3], () -> Matrix.dot(w2, h, o32));
+			run(products[4], () -> Matrix.multiplyTransposeA(w2, o, h32));
+			run(products[5], () -> Matrix.multiplyTransposeA(w1, h, h32));
+			run(products[6], () -> Matrix.multiplyTransposeB(h, x32, g0));
+			run(products[7], () -> Matrix.multiplyTransposeB(h, h, g1));
+			
+			//a whole dense layer forward and backward, fused and as separate passes
+			Matrix b16 = random(16, 1, p), z32 = new Matrix(16, 32, p), e32 = random(16, 32, p);
+			run(products[8], () -> Matrix.dense(w0, x32, b16, Activation.Tanh, z32, h32));
+			run(products[9], () -> Matrix.vec(Matrix.addColumn(Matrix.dot(w0, x32, z32), b16, z32), h32, Activation.Tanh));
+			run(products[10], () -> Matrix.denseBackward(w1, e32, h, Derivative.Tanh, h32));
+			run(products[11], () -> Matrix.denseBackwardOut(w1, e32, h, Derivative.Tanh, h32));
+			run(products[12], () -> {
+				Matrix.multiplyTransposeA(w1, e32, h32);
+				Matrix.pro(h32, h, Derivative.Tanh, h32);
+			});
+		}
+
+		String[] elements = {"Matrix.add 16x784" + s, "Matrix.sub 16x784" + s, "Matrix.scl 16x784" + s, "Matrix.pro 16x784" + s,
+				"Matrix.hadamardDivision 16x784" + s, "Matrix.fill 16x784" + s, "Matrix.addColumn 16x784" + s, "Matrix.sumColumns 16x784" + s,
+				"Matrix.vec sigmoid 16x784" + s, "Matrix.vec tanh 16x784" + s, "Matrix.vec tanh' 16x784" + s, "Matrix.vec fast tanh 16x784" + s,
+				"Matrix.vec fast tanh' 16x784" + s, "Matrix.vec relu 16x784" + s, "Matrix.pro sigmoid' 16x784" + s, "Matrix.proOut sigmoid' 16x784" + s};
+		if(passes(elements)) {
+			Matrix a = random(16, 784, p), b = random(16, 784, p), dst = new Matrix(16, 784, p), h1 = new Matrix(16, 1, p);
+			run(elements[0], () -> Matrix.add(a, b, dst));
+			run(elements[1], () -> Matrix.sub(a, b, dst));
+			run(elements[2], () -> Matrix.scl(a, dst, 0.5));
+			run(elements[3], () -> Matrix.pro(a, b, dst));
+			run(elements[4], () -> Matrix.hadamardDivision(a, b, dst));
+			run(elements[5], () -> dst.fill(0.5));
+			run(elements[6], () -> Matrix.addColumn(a, h1, dst));
+			run(elements[7], () -> Matrix.sumColumns(a, h1));
+			run(elements[8], () -> Matrix.vec(a, dst, Activation.Sigmoid));
+			run(elements[9], () -> Matrix.vec(a, dst, Activation.Tanh));
+			run(elements[10], () -> Matrix.vec(a, dst, Derivative.Tanh));
+			run(elements[11], () -> Matrix.vec(a, dst, Activation.FastTanh));
+			run(elements[12], () -> Matrix.vec(a, dst, Derivative.FastTanh));
+			run(elements[13], () -> Matrix.vec(a, dst, Activation.ReLU));
+			run(elements[14], () -> Matrix.pro(a, b, Derivative.Sigmoid, dst));
+			run(elements[15], () -> Matrix.proOut(a, b, Derivative.Sigmoid, dst));
+		}
+		
+		//the first layer on a batch of which a fifth of the inputs are nonzero, like the pixels of digits
+		String[] sparse = {"Matrix.dense 16x784*784x32 (20%)" + s, "Matrix.dense sparse 16x784*784x32 (20%)" + s,
+				"Matrix.multiplyTransposeB 16x32*784x32^T (20%)" + s, "Matrix.multiplyTransposeB sparse 16x32*784x32^T (20%)" + s};
+		if(passes(sparse)) {
+			Matrix w0 = random(16, 784, p), b16 = random(16, 1, p), h = random(16, 32, p);
+			Matrix z32 = new Matrix(16, 32, p), h32 = new Matrix(16, 32, p), g0 = new Matrix(16, 784, p);
+			Matrix xs = new Matrix(784, 32, p);
+			SparseBatch s32 = new SparseBatch(784, 32, p);
+			for(int j = 0; j < 32; j++) {
+				for(int r = 0; r < 784; r++) {
+					if(rand.nextInt(5) == 0)
+						xs.set(r, j, rand.nextDouble());
+					s32.add(r, xs.get(r, j));
+				}
+				s32.next();
+			}
+			run(sparse[0], () -> Matrix.dense(w0, xs, b16, Activation.Tanh, z32, h32));
+			run(sparse[1], () -> Matrix.dense(w0, s32, b16, Activation.Tanh, z32, h32));
+			run(sparse[2], () -> Matrix.multiplyTransposeB(h, xs, g0));
+			run(sparse[3], () -> Matrix.multiplyTransposeB(h, s32, g0));
+		}
+	}
+
+	/*** NETWORK ***/
+
+	private void network(Precision p) throws IOException {
+		String s = p == Precision.SINGLE ? ":single" : ":double";
+
+		NeuralNetwork net = network(p, new int[] {784, 16, 16, 10});
+		Matrix x32 = random(784, 32, p);
+		String[] passes = {"NeuralNetwork.process 1" + s, "NeuralNetwork.process 32" + s, "NeuralNetwork.process 32 (allocating)" + s,
+				"NeuralNetwork.backpropagate 32" + s, "NeuralNetwork.backpropagate 32 (allocating)" + s};
+		if(passes(passes)) {
+			Matrix x1 = random(784, 1, p), y32 = new Matrix(10, 32, p);
+			Workspace ws1 = net.workspace(1), ws32 = net.workspace(32);
+			for(int j = 0; j < 32; j++) {
+				y32.set(rand.nextInt(10), j, 1);
+			}
+			run(passes[0], () -> net.process(x1, ws1));
+			run(passes[1], () -> net.process(x32, ws32));
+			run(passes[2], () -> sink = net.process(x32));
+			run(passes[3], () -> net.backpropagate(x32, y32, ws32));
+			run(passes[4], () -> sink = net.backpropagate(x32, y32));
+		}
+
+		//one step over the parameters of the network, which must not allocate anything
+		String[] updates = {"Optimizer.update sgd" + s, "Optimizer.update nesterov" + s, "Optimizer.update rmsprop" + s, "Optimizer.update adam" + s};
+		if(passes(updates)) {
+			Matrix[][] parameters = {{random(16, 784, p), random(16, 16, p), random(10, 16, p)}, {random(16, 1, p), random(16, 1, p), random(10, 1, p)}};
+			Matrix[][] gradients = {{random(16, 784, p), random(16, 16, p), random(10, 16, p)}, {random(16, 1, p), random(16, 1, p), random(10, 1, p)}};
+			Optimizer[] optimizers = {Optimizer.sgd(), Optimizer.nesterov(0.9), Optimizer.rmsprop(), Optimizer.adam()};
+			for(int i = 0; i < optimizers.length; i++) {
+				Optimizer optimizer = optimizers[i];
+				optimizer.prepare(parameters);
+				run(updates[i], () -> optimizer.update(parameters, gradients, 1e-9));
+			}
+		}
+
+		String[] synthetic = {"NeuralNetwork.train epoch 6000x32" + s, "NeuralNetwork.train epoch 6000x32 (metrics)" + s,
+				"NeuralNetwork.classify 6000x256" + s, "QuantizedNetwork.classify 6000x256" + s};
+		Dataset data = passes(synthetic) ? dataset(6000) : null;
+		run("NeuralNetwork.train epoch 6000x32" + s, () -> net.train(data, 1, 32, 0.01f));
+		//the same with every batch timed for a listener that does nothing
+		TrainingListener listener = new TrainingListener() {};
+		net.listen(listener);
+		run("NeuralNetwork.train epoch 6000x32 (metrics)" + s, () -> net.train(data, 1, 32, 0.01f));
+		net.unlisten(listener);
+
+		int[] predicted = new int[6000];
+		run("NeuralNetwork.classify 6000x256" + s, () -> net.classify(data, 0, data.size(), 256, predicted, null));
+		
+		//the images gathered as sparse batches and as dense matrices
+		String[] images = {"NeuralNetwork.train epoch 6000x32 images (sparse)" + s, "NeuralNetwork.classify 6000x256 images (sparse)" + s,
+				"NeuralNetwork.train epoch 6000x32 images (dense)" + s, "NeuralNetwork.classify 6000x256 images (dense)" + s};
+		if(passes(images)) {
+			File pixels = File.createTempFile("bench-images", ".idx3-ubyte");
+			File labels = File.createTempFile("bench-labels", ".idx1-ubyte");
+			pixels.deleteOnExit();
+			labels.deleteOnExit();
+			writeIdx(pixels, labels, 6000);
+			ImageSet set = ImageSet.load(pixels.getPath(), labels.getPath(), 10);
+			run(images[0], () -> net.train(set, 1, 32, 0.01f));
+			run(images[1], () -> net.classify(set, 0, set.size(), 256, predicted, null));
+			net.sparse(false);
+			run(images[2], () -> net.train(set, 1, 32, 0.01f));
+			run(images[3], () -> net.classify(set, 0, set.size(), 256, predicted, null));
+			net.sparse(true);
+		}
+		
+		if(passes("QuantizedNetwork.process 32 (allocating)" + s, "QuantizedNetwork.classify 6000x256" + s)) {
+			QuantizedNetwork quantized = QuantizedNetwork.quantize(net);
+			run("QuantizedNetwork.process 32 (allocating)" + s, () -> sink = quantized.process(x32));
+			run("QuantizedNetwork.classify 6000x256" + s, () -> quantized.classify(data, 0, data.size(), 256, predicted, null));
+		}
+	}
+
+	/*** PRUNING ***/
+
+	/**
+	 * every layer with dense and with pruned weights and the whole network in its sparse form,
+	 * for the network of the digit reader and a larger one. the sizes of the sparse networks
+	 * are printed before their benchmarks
+	 */
+	private void pruning(Precision p) {
+		String s = p == Precision.SINGLE ? ":single" : ":double";
+
+		for(int[] layers : new int[][] {{784, 16, 16, 10}, {784, 256, 128, 10}}) {
+			String shape = layers[1] + "-" + layers[2];
+			String[] network = {"NeuralNetwork.process 1 " + shape + s, "NeuralNetwork.process 32 " + shape + s};
+			String[] compressed = {"SparseNetwork.process " + shape + " 50% 1 (allocating)" + s, "SparseNetwork.process " + shape + " 50% 32 (allocating)" + s,
+					"SparseNetwork.process " + shape + " 90% 1 (allocating)" + s, "SparseNetwork.process " + shape + " 90% 32 (allocating)" + s};
+			Matrix x1 = random(784, 1, p), x32 = random(784, 32, p);
+
+			if(passes(network) || passes(compressed)) {
+				NeuralNetwork net = network(p, layers);
+				Workspace ws1 = net.workspace(1), ws32 = net.workspace(32);
+				run(network[0], () -> net.process(x1, ws1));
+				run(network[1], () -> net.process(x32, ws32));
+
+				for(int i = 0; i < 2 && passes(compressed); i++) {
+					net.prune(i == 0 ? 0.5 : 0.9);
+					//every layer in compressed sparse rows, also those above the break-even density
+					SparseNetwork sparse = SparseNetwork.compress(net, 1);
+					if(passes(compressed[2 * i], compressed[2 * i + 1]))
+						System.out.println(sparse);
+					run(compressed[2 * i], () -> sink = sparse.process(x1));
+					run(compressed[2 * i + 1], () -> sink = sparse.process(x32));
+				}
+			}
+
+			for(int l = 0; l < layers.length - 1; l++) {
+				String size = layers[l + 1] + "x" + layers[l];
+				String[] dense = {"Matrix.dense " + size + "*" + layers[l] + "x1" + s, "Matrix.dense " + size + "*" + layers[l] + "x32" + s,
+						"Matrix.dense sparse " + size + " 50%*" + layers[l] + "x1" + s, "Matrix.dense sparse " + size + " 50%*" + layers[l] + "x32" + s,
+						"Matrix.dense sparse " + size + " 90%*" + layers[l] + "x1" + s, "Matrix.dense sparse " + size + " 90%*" + layers[l] + "x32" + s};
+				if(!passes(dense))
+					continue;
+
+				Matrix w = random(layers[l + 1], layers[l], p), b = random(layers[l + 1], 1, p);
+				Matrix in1 = random(layers[l], 1, p), in32 = random(layers[l], 32, p);
+				Matrix out1 = new Matrix(layers[l + 1], 1, p), out32 = new Matrix(layers[l + 1], 32, p);
+				run(dense[0], () -> Matrix.dense(w, in1, b, Activation.Tanh, null, out1));
+				run(dense[1], () -> Matrix.dense(w, in32, b, Activation.Tanh, null, out32));
+
+				for(int i = 1; i < 3; i++) {
+					double sparsity = i == 1 ? 0.5 : 0.9;
+					Matrix pruned = random(layers[l + 1], layers[l], p);
+					for(int r = 0; r < pruned.getRows(); r++) {
+						for(int k = 0; k < pruned.getColumns(); k++) {
+							if(rand.nextDouble() < sparsity)
+								pruned.set(r, k, 0);
+						}
+					}
+					SparseMatrix sw = SparseMatrix.of(pruned);
+					run(dense[2 * i], () -> Matrix.dense(sw, in1, b, Activation.Tanh, out1));
+					run(dense[2 * i + 1], () -> Matrix.dense(sw, in32, b, Activation.Tanh, out32));
+				}
+			}
+		}
+	}
+
+	/*** OFF-HEAP ***/
+
+	/**
+	 * the dense layers and networks with their parameters on the heap, in an arena
+	 * and in a shared checkpoint, for the network of the digit reader and a larger one
+	 */
+	private void offHeap(Precision p) throws IOException {
+		String s = p == Precision.SINGLE ? ":single" : ":double";
+
+		for(int[] layers : new int[][] {{784, 16, 16, 10}, {784, 256, 128, 10}}) {
+			String shape = layers[1] + "-" + layers[2], size = layers[1] + "x784";
+			String[] dense = {"Matrix.dense " + size + "*784x1 (heap)" + s, "Matrix.dense " + size + "*784x1 (arena)" + s,
+					"Matrix.dense " + size + "*784x32 (heap)" + s, "Matrix.dense " + size + "*784x32 (arena)" + s};
+			String[] process = {"NeuralNetwork.process 1 " + shape + " (heap)" + s, "NeuralNetwork.process 1 " + shape + " (shared)" + s,
+					"NeuralNetwork.process 1 " + shape + " (arena)" + s, "NeuralNetwork.process 32 " + shape + " (heap)" + s,
+					"NeuralNetwork.process 32 " + shape + " (shared)" + s, "NeuralNetwork.process 32 " + shape + " (arena)" + s};
+			if(!passes(dense) && !passes(process))
+				continue;
+
+			try(Arena arena = new Arena()) {
+				Matrix x1 = random(784, 1, p), x32 = random(784, 32, p);
+				if(passes(dense)) {
+					Matrix w = random(layers[1], 784, p), b = random(layers[1], 1, p);
+					Matrix aw = arena.copy(w), ab = arena.copy(b);
+					Matrix out1 = new Matrix(layers[1], 1, p), out32 = new Matrix(layers[1], 32, p);
+					run(dense[0], () -> Matrix.dense(w, x1, b, Activation.Tanh, null, out1));
+					run(dense[1], () -> Matrix.dense(aw, x1, ab, Activation.Tanh, null, out1));
+					run(dense[2], () -> Matrix.dense(w, x32, b, Activation.Tanh, null, out32));
+					run(dense[3], () -> Matrix.dense(aw, x32, ab, Activation.Tanh, null, out32));
+				}
+
+				if(passes(process)) {
+					File checkpoint = File.createTempFile("bench-network", ".ckpt");
+					checkpoint.deleteOnExit();
+					Checkpoint.save(network(p, layers), checkpoint.getPath());
+					NeuralNetwork heap = Checkpoint.load(checkpoint.getPath());
+					NeuralNetwork shared = Checkpoint.share(checkpoint.getPath());
+					NeuralNetwork allocated = Checkpoint.load(checkpoint.getPath(), arena);
+					Workspace ws1 = heap.workspace(1), ws32 = heap.workspace(32);
+					run(process[0], () -> heap.process(x1, ws1));
+					run(process[1], () -> shared.process(x1, ws1));
+					run(process[2], () -> allocated.process(x1, ws1));
+					run(process[3], () -> heap.process(x32, ws32));
+					run(process[4], () -> shared.process(x32, ws32));
+					run(process[5], () -> allocated.process(x32, ws32));
+				}
+			}
+		}
+	}
+
+	/*** LOADING ***/
+
+	private void loading() throws IOException {
+		if(!passes("MNIST.getImages 10000", "MNIST.getLabels 10000", "ImageSet.load 10000", "ImageSet.map 10000"))
+			return;
+		File images = File.createTempFile("bench-images", ".idx3-ubyte");
+		File labels = File.createTempFile("bench-labels", ".idx1-ubyte");
+		images.deleteOnExit();
+		labels.deleteOnExit();
+		writeIdx(images, labels, 10000);
+
+		run("MNIST.getImages 10000", () -> sink = MNIST.getImages(images.getPath()));
+		run("MNIST.getLabels 10000", () -> sink = MNIST.getLabels(labels.getPath()));
+		run("ImageSet.load 10000", () -> sink = ImageSet.load(images.getPath(), labels.getPath()));
+		run("ImageSet.map 10000", () -> sink = ImageSet.map(images.getPath(), labels.getPath()));
+	}
+
+	private void checkpoints() throws IOException {
+		if(!passes("Checkpoint.save 784-16-16-10", "Checkpoint.load 784-16-16-10", "Checkpoint.share 784-16-16-10"))
+			return;
+		File checkpoint = File.createTempFile("bench-network", ".ckpt");
+		checkpoint.deleteOnExit();
+		NeuralNetwork net = network(Precision.DOUBLE, new int[] {784, 16, 16, 10});
+		Checkpoint.save(net, checkpoint.getPath());
+		run("Checkpoint.save 784-16-16-10", () -> Checkpoint.save(net, checkpoint.getPath()));
+		run("Checkpoint.load 784-16-16-10", () -> sink = Checkpoint.load(checkpoint.getPath()));
+		run("Checkpoint.share 784-16-16-10", () -> sink = Checkpoint.share(checkpoint.getPath()));
+	}
+
+	/*** HARNESS ***/
+
+	/**
+	 * warms the body up and measures it, if its name passes the filters
+	 */
+	private void run(String name, Runnable body) {
+		if(!passes(name))
+			return;
+
+		//silences the progress output of the measured code
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+		long ops = 1, bytes, gc;
+		double[] nanos = new double[ITERATIONS];
+		try {
+			//finds out how many operations fill one iteration
+			long t;
+			while((t = time(body, ops)) < ITERATION_NANOS / 10) {
+				ops *= 2;
+			}
+			ops = Math.max(1, ops * ITERATION_NANOS / t);
+
+			for(int i = 0; i < WARMUP; i++) {
+				time(body, ops);
+			}
+
+			long thread = Thread.currentThread().getId();
+			bytes = allocated(thread);
+			gc = gcMillis();
+			for(int i = 0; i < ITERATIONS; i++) {
+				nanos[i] = time(body, ops) / (double) ops;
+			}
+			bytes = allocated(thread) - bytes;
+			gc = gcMillis() - gc;
+		} finally {
+			System.setOut(out);
+		}
+
+		double mean = 0, var = 0;
+		for(double n : nanos) {
+			mean += n / ITERATIONS;
+		}
+		for(double n : nanos) {
+			var += (n - mean) * (n - mean) / (ITERATIONS - 1);
+		}
+		System.out.printf("%-48s %14.1f %12.1f %14.1f %10d%n", name, mean, Math.sqrt(var), bytes / (double) (ops * ITERATIONS), gc);
+	}
+
+	private static long allocated(long thread) {
+		return THREADS != null ? THREADS.getThreadAllocatedBytes(thread) : 0;
+	}
+
+	private static com.sun.management.ThreadMXBean threads() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		return bean instanceof com.sun.management.ThreadMXBean ? (com.sun.management.ThreadMXBean) bean : null;
+	}
+
+	/**
+	 * whether a benchmark of any of the given names runs with the filters,
+	 * so that the fixtures of benchmarks that do not run are never built
+	 */
+	private boolean passes(String... names) {
+		for(String name : names) {
+			if(filters.isEmpty() || filters.stream().anyMatch(name::contains))
+				return true;
+		}
+		return false;
+	}
+
+	private static long time(Runnable body, long ops) {
+		long start = System.nanoTime();
+		for(long i = 0; i < ops; i++) {
+			body.run();
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static long gcMillis() {
+		long total = 0;
+		for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			total += Math.max(0, gc.getCollectionTime());
+		}
+		return total;
+	}
+
+	/*** FIXTURES ***/
+
+	private Matrix random(int rows, int cols, Precision p) {
+		Matrix m = new Matrix(rows, cols, p);
+		for(int i = 0; i < rows; i++) {
+			for(int j = 0; j < cols; j++) {
+				m.set(i, j, rand.nextGaussian());
+			}
+		}
+		return m;
+	}
+
+	private static NeuralNetwork network(Precision p, int[] layers) {
+		NeuralNetwork net = new NeuralNetwork(layers, Cost.QUADRATIC, p);
+		net.activate(new Activation[] {Activation.Tanh, Activation.LeakyReLU, Activation.Sigmoid},
+					new Derivative[] {Derivative.Tanh, Derivative.LeakyReLU, Derivative.Sigmoid});
+		net.initialize();
+		return net;
+	}
+
+	/**
+	 * synthetic samples with about as many non-zero pixels as MNIST
+	 */
+	private Dataset dataset(int size) {
+		Matrix[] data = new Matrix[size], res = new Matrix[size];
+		for(int i = 0; i < size; i++) {
+			data[i] = new Matrix(784, 1);
+			res[i] = new Matrix(10, 1);
+			for(int p = 0; p < 784; p++) {
+				if(rand.nextInt(5) == 0)
+					data[i].set(p, 0, rand.nextDouble());
+			}
+			res[i].set(rand.nextInt(10), 0, 1);
+		}
+		return Dataset.of(data, res);
+	}
+
+	private void writeIdx(File images, File labels, int count) throws IOException {
+		try(DataOutputStream img = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(images)));
+			DataOutputStream lbl = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(labels)))) {
+			img.writeInt(MNIST.IMAGE_FILE_MAGIC_NUMBER);
+			img.writeInt(count);
+			img.writeInt(28);
+			img.writeInt(28);
+			lbl.writeInt(MNIST.LABEL_FILE_MAGIC_NUMBER);
+			lbl.writeInt(count);
+			for(int i = 0; i < count; i++) {
+				for(int p = 0; p < 784; p++) {
+					img.write(rand.nextInt(5) == 0 ? rand.nextInt(256) : 0);
+				}
+				lbl.write(rand.nextInt(10));
+			}
+		}
+	}
+
+}
@@ -0,0 +1,227 @@
+package bench;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import utils.Kernels;
+import utils.Matrix;
+
+/**
+ * checks the kernels against copies of the get/set loops the element-wise operations of Matrix
+ * were originally written with, in both precisions and at lengths around every vector width,
+ * so the vector loops and their tails are both covered. the element-wise operations have to agree
+ * exactly and must not write past their length, the dot products up to rounding. shift and sum had
+ * no loop of their own, so they are checked against the scalar kernels instead.
+ *
+ * usage: java [--add-modules jdk.incubator.vector] bench.KernelCheck, which checks the selected
+ * and the scalar kernels without running any benchmark. Benchmarks runs it first as well
+ */
+public class KernelCheck {
+
+	private static final int[] LENGTHS = {0, 1, 2, 3, 5, 7, 8, 9, 15, 16, 17, 31, 32, 33, 63, 64, 65, 100, 255, 12544, 12547};
+
+	/**
+	 * the elements after the length, which no kernel may touch
+	 */
+	private static final int GUARD = 5;
+
+	public static void main(String[] args) {
+		check();
+		if(Kernels.get() != Kernels.scalar()) {
+			check(Kernels.scalar());
+			System.out.println("Kernels: " + Kernels.scalar().getName() + " (verified against the original loops)");
+		}
+	}
+
+	/**
+	 * checks the selected kernels, throwing a RuntimeException on the first disagreement
+	 */
+	public static void check() {
+		check(Kernels.get());
+		System.out.println("Kernels: " + Kernels.get().getName() + " (verified against the original loops)");
+	}
+
+	private static void check(Kernels k) {
+		Random rand = new Random(42);
+		for(int n : LENGTHS) {
+			checkDouble(k, n, rand);
+			checkSingle(k, n, rand);
+		}
+	}
+
+	private static void checkDouble(Kernels k, int n, Random rand) {
+		double[] a = new double[n + GUARD], b = new double[n + GUARD], x = new double[n + GUARD], y = new double[n + GUARD];
+		for(int i = 0; i < n + GUARD; i++) {
+			a[i] = rand.nextGaussian();
+			b[i] = rand.nextGaussian() + 3;
+		}
+		Matrix ma = new Matrix(Arrays.copyOf(a, n), 1, n), mb = new Matrix(Arrays.copyOf(b, n), 1, n), expected = new Matrix(1, n);
+
+		guard(x); k.add(a, b, x, n); add(ma, mb, expected); check("add", k, expected, x, n);
+		guard(x); k.sub(a, b, x, n); sub(ma, mb, expected); check("sub", k, expected, x, n);
+		guard(x); k.mul(a, b, x, n); pro(ma, mb, expected); check("mul", k, expected, x, n);
+		guard(x); k.div(a, b, x, n); hadamardDivision(ma, mb, expected); check("div", k, expected, x, n);
+		guard(x); k.scale(a, 0.3, x, n); scl(ma, expected, 0.3); check("scale", k, expected, x, n);
+		guard(x); k.fill(x, 0.7, n); fill(expected, 0.7); check("fill", k, expected, x, n);
+
+		//with offsets into the arrays, like a row of a matrix
+		Matrix row = n == 0 ? new Matrix(1, 0) : new Matrix(Arrays.copyOfRange(a, 1, n + 1), 1, n);
+		Matrix col = n == 0 ? new Matrix(0, 1) : new Matrix(Arrays.copyOfRange(b, 4, n + 4), n, 1);
+		check("dot", k, k.dot(a, 1, b, 4, n), getMultipliedEntry(row, col, 0, 0), magnitude(row, col) * n * 0x1p-52);
+
+		if(n >= 2) {
+			Arrays.fill(x, 0); Arrays.fill(y, 0);
+			k.shift(a, 2, -1.5, x, n - 2); Kernels.scalar().shift(a, 2, -1.5, y, n - 2);
+			if(!Arrays.equals(x, y))
+				throw new RuntimeException("The kernels " + k.getName() + " disagree on shift at length " + n);
+			check("sum", k, k.sum(a, 2, n - 2), Kernels.scalar().sum(a, 2, n - 2), magnitude(a) * n * 0x1p-52);
+		}
+	}
+
+	private static void checkSingle(Kernels k, int n, Random rand) {
+		float[] a = new float[n + GUARD], b = new float[n + GUARD], x = new float[n + GUARD], y = new float[n + GUARD];
+		for(int i = 0; i < n + GUARD; i++) {
+			a[i] = (float) rand.nextGaussian();
+			b[i] = (float) rand.nextGaussian() + 3;
+		}
+		Matrix ma = new Matrix(Arrays.copyOf(a, n), 1, n), mb = new Matrix(Arrays.copyOf(b, n), 1, n), expected = new Matrix(new float[n], 1, n);
+
+		//the loops compute in double and round when setting, which gives the same floats for these operations,
+		//as long as the scalars are floats already
+		guard(x); k.add(a, b, x, n); add(ma, mb, expected); check("add:single", k, expected, x, n);
+		guard(x); k.sub(a, b, x, n); sub(ma, mb, expected); check("sub:single", k, expected, x, n);
+		guard(x); k.mul(a, b, x, n); pro(ma, mb, expected); check("mul:single", k, expected, x, n);
+		guard(x); k.div(a, b, x, n); hadamardDivision(ma, mb, expected); check("div:single", k, expected, x, n);
+		guard(x); k.scale(a, 0.3f, x, n); scl(ma, expected, 0.3f); check("scale:single", k, expected, x, n);
+		guard(x); k.fill(x, 0.7f, n); fill(expected, 0.7f); check("fill:single", k, expected, x, n);
+
+		Matrix row = n == 0 ? new Matrix(new float[0], 1, 0) : new Matrix(Arrays.copyOfRange(a, 1, n + 1), 1, n);
+		Matrix col = n == 0 ? new Matrix(new float[0], 0, 1) : new Matrix(Arrays.copyOfRange(b, 4, n + 4), n, 1);
+		check("dot:single", k, k.dot(a, 1, b, 4, n), getMultipliedEntry(row, col, 0, 0), magnitude(row, col) * n * 0x1p-23);
+
+		if(n >= 2) {
+			Arrays.fill(x, 0); Arrays.fill(y, 0);
+			k.shift(a, 2, -1.5f, x, n - 2); Kernels.scalar().shift(a, 2, -1.5f, y, n - 2);
+			if(!Arrays.equals(x, y))
+				throw new RuntimeException("The kernels " + k.getName() + " disagree on shift:single at length " + n);
+			check("sum:single", k, k.sum(a, 2, n - 2), Kernels.scalar().sum(a, 2, n - 2), magnitude(a) * n * 0x1p-23);
+		}
+	}
+
+	private static void guard(double[] x) {
+		Arrays.fill(x, -7);
+	}
+
+	private static void guard(float[] x) {
+		Arrays.fill(x, -7);
+	}
+
+	private static void check(String op, Kernels k, Matrix expected, double[] x, int n) {
+		for(int i = 0; i < x.length; i++) {
+			if(x[i] != (i < n ? expected.get(0, i) : -7))
+				throw new RuntimeException("The kernels " + k.getName() + " disagree on " + op + " at element " + i + " of length " + n);
+		}
+	}
+
+	private static void check(String op, Kernels k, Matrix expected, float[] x, int n) {
+		for(int i = 0; i < x.length; i++) {
+			if(x[i] != (i < n ? expected.get(0, i) : -7))
+				throw new RuntimeException("The kernels " + k.getName() + " disagree on " + op + " at element " + i + " of length " + n);
+		}
+	}
+
+	private static void check(String op, Kernels k, double x, double expected, double tolerance) {
+		if(Math.abs(x - expected) > tolerance)
+			throw new RuntimeException("The kernels " + k.getName() + " disagree on " + op + ": " + x + " instead of " + expected);
+	}
+
+	/**
+	 * the sum of the absolute products, which bounds the rounding error of a dot product
+	 */
+	private static double magnitude(Matrix row, Matrix col) {
+		double sum = 0;
+		for(int i = 0; i < row.getColumns(); i++) {
+			sum += Math.abs(row.get(0, i) * col.get(i, 0));
+		}
+		return sum;
+	}
+
+	private static double magnitude(double[] a) {
+		double sum = 0;
+		for(double v : a) {
+			sum += Math.abs(v);
+		}
+		return sum;
+	}
+
+	private static double magnitude(float[] a) {
+		double sum = 0;
+		for(float v : a) {
+			sum += Math.abs(v);
+		}
+		return sum;
+	}
+
+	/*** ORIGINAL LOOPS ***/
+
+	//copied from the element-wise operations of Matrix before they ran on the kernels
+
+	private static void fill(Matrix m, double a) {
+		for(int i = 0; i < m.getRows(); i++) {
+			for(int j = 0; j < m.getColumns(); j++) {
+				m.set(i, j, a);
+			}
+		}
+	}
+
+	private static void add(Matrix src1, Matrix src2, Matrix dst) {
+		for(int i = 0; i < src1.getRows(); i++) {
+			for(int j = 0; j < src1.getColumns(); j++) {
+				dst.set(i, j, src1.get(i, j) + src2.get(i, j));
+			}
+		}
+	}
+
+	private static void sub(Matrix a, Matrix b, Matrix dst) {
+		for(int i = 0; i < a.getRows(); i++) {
+			for(int j = 0; j < a.getColumns(); j++) {
+				dst.set(i, j, a.get(i, j) - b.get(i, j));
+			}
+		}
+	}
+
+	private static double getMultipliedEntry(Matrix a, Matrix b, int row, int column) {
+		double sum = 0;
+
+		for(int i = 0; i < a.getColumns(); i++) {
+			sum += a.get(row, i) * b.get(i, column);
+		}
+
+		return sum;
+	}
+
+	private static void scl(Matrix src, Matrix dst, double val) {
+		for(int i = 0; i < src.getRows(); i++) {
+			for(int j = 0; j < src.getColumns(); j++) {
+				dst.set(i, j, val * src.get(i, j));
+			}
+		}
+	}
+
+	private static void pro(Matrix a, Matrix b, Matrix dst) {
+		for(int i = 0; i < a.getRows(); i++) {
+			for(int j = 0; j < a.getColumns(); j++) {
+				dst.set(i, j, a.get(i, j) * b.get(i, j));
+			}
+		}
+	}
+
+	private static void hadamardDivision(Matrix a, Matrix b, Matrix dst) {
+		for(int i = 0; i < a.getRows(); i++) {
+			for(int j = 0; j < a.getColumns(); j++) {
+				dst.set(i, j, a.get(i, j) / b.get(i, j));
+			}
+		}
+	}
+
+}
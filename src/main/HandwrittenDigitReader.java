@@ -1,20 +1,46 @@
 package main;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 
+import net.Checkpoint;
+import net.Classifier;
+import net.Evaluation;
+import net.MetricsWriter;
 import net.NeuralNetwork;
+import net.Optimizer;
+import net.QuantizedNetwork;
+import net.Schedule;
+import net.SparseNetwork;
+import net.TrainingListener;
 import utils.Activation;
 import utils.Cost;
 import utils.Derivative;
-import utils.MNIST;
-import utils.Matrix;
+import utils.ImageSet;
+import utils.Precision;
 
 public class HandwrittenDigitReader {
 	
-	private static final int[] train_labels = MNIST.getLabels("res/train-labels.idx1-ubyte");
-	private static final ArrayList<int[][]> train_data = MNIST.getImages("res/train-images.idx3-ubyte");
-	private static final int[] test_labels = MNIST.getLabels("res/t10k-labels.idx1-ubyte");
-	private static final ArrayList<int[][]> test_data = MNIST.getImages("res/t10k-images.idx3-ubyte");
+	/**
+	 * the datasets are only loaded once they are used, so a network restored
+	 * from a checkpoint never reads the training set. both have the ten digits as classes
+	 */
+	private static class TrainData {
+		private static final ImageSet train_data = load("res/train-images.idx3-ubyte", "res/train-labels.idx1-ubyte");
+	}
+	
+	private static class TestData {
+		private static final ImageSet test_data = load("res/t10k-images.idx3-ubyte", "res/t10k-labels.idx1-ubyte");
+	}
+	
+	private static ImageSet load(String images, String labels) {
+		ImageSet set = ImageSet.load(images, labels, 10);
+		System.out.println("loaded the images from " + images);
+		return set;
+	}
+	
+	private static final String CHECKPOINT = "res/network.ckpt";
+	private static final String METRICS = "res/metrics.csv";
 
 	private NeuralNetwork network;
 	
@@ -23,76 +49,173 @@ public class HandwrittenDigitReader {
 	public static void main(String[] args) {
 		//MNIST.test(labels, data);
 
-		HandwrittenDigitReader ai = new HandwrittenDigitReader(Cost.QUADRATIC, .05f);
+		//"load" restores the network of the last run with "save" instead of training a new one,
+		//"shared" keeps its parameters in the mapped checkpoint, which can only be used for inference
+		if(Arrays.asList(args).contains("load")) {
+			boolean shared = Arrays.asList(args).contains("shared");
+			HandwrittenDigitReader ai = new HandwrittenDigitReader(.05f, CHECKPOINT, shared);
+			float prec = ai.test();
+			if(Arrays.asList(args).contains("quantize"))
+				ai.quantize(prec);
+			if(Arrays.asList(args).contains("prune") && !shared)
+				ai.prune(prec);
+			return;
+		}
 		
-		ai.activate(new Activation[] {Activation.Tanh, Activation.LeakyReLU, Activation.Sigmoid}, 
-					new Derivative[] {Derivative.Tanh, Derivative.LeakyReLU, Derivative.Sigmoid});
+		//"single" trains in 32 bit instead of 64 bit floating point
+		Precision precision = Arrays.asList(args).contains("single") ? Precision.SINGLE : Precision.DOUBLE;
+		//"momentum" and "adam" train with these optimizers and a cosine schedule instead of plain
+		//gradient descent, with a smaller learning rate as the momentum adds up the gradients
+		boolean momentum = Arrays.asList(args).contains("momentum"), adam = Arrays.asList(args).contains("adam");
+		HandwrittenDigitReader ai = new HandwrittenDigitReader(Cost.QUADRATIC, adam ? .001f : momentum ? .002f : .05f, precision);
+		if(adam)
+			ai.optimize(Optimizer.adam(), Schedule.cosine(5, .1));
+		else if(momentum)
+			ai.optimize(Optimizer.nesterov(.9), Schedule.cosine(5, .1));
+		
+		//"fast" uses the faster approximation of tanh
+		boolean fast = Arrays.asList(args).contains("fast");
+		ai.activate(new Activation[] {fast ? Activation.FastTanh : Activation.Tanh, Activation.LeakyReLU, Activation.Sigmoid}, 
+					new Derivative[] {fast ? Derivative.FastTanh : Derivative.Tanh, Derivative.LeakyReLU, Derivative.Sigmoid});
 		ai.initialize();
-		float time = ai.train(train_data.size(), 5, 32);
-		float prec = ai.test(test_data.size()) * 10;
-		System.out.println("Efficiency: " + (prec / time));
+		//"parallel" splits every batch across all cores, "async" trains hogwild-style
+		if(Arrays.asList(args).contains("parallel"))
+			ai.parallelize(ForkJoinPool.commonPool());
+		//"save" writes a checkpoint after every epoch
+		if(Arrays.asList(args).contains("save"))
+			ai.checkpoint(CHECKPOINT);
+		//"metrics" writes the metrics of every batch and epoch to a CSV file
+		MetricsWriter metrics = Arrays.asList(args).contains("metrics") ? MetricsWriter.csv(METRICS, true) : null;
+		if(metrics != null)
+			ai.listen(metrics);
+		//"until" trains until the accuracy on the last 10000 training samples reaches 95% or stops improving
+		float time = Arrays.asList(args).contains("until") ? ai.trainUntil(30, 32, .95, 3)
+				: ai.train(5, 32, Arrays.asList(args).contains("async") ? Runtime.getRuntime().availableProcessors() : 0);
+		if(metrics != null)
+			metrics.close();
+		float prec = ai.test();
+		System.out.println("Efficiency: " + (prec * 10 / time));
+		//"quantize" compares the network to its 8 bit integer form
+		if(Arrays.asList(args).contains("quantize"))
+			ai.quantize(prec);
+		//"prune" compares the network to its pruned and sparse forms
+		if(Arrays.asList(args).contains("prune"))
+			ai.prune(prec);
 	}
 
-	public HandwrittenDigitReader(Cost cost, float learningrate) {
+	public HandwrittenDigitReader(Cost cost, float learningrate, Precision precision) {
 		this.learningrate = learningrate;
 		
-		this.network = new NeuralNetwork(new int[] {784, 16, 16, 10}, cost);		
+		this.network = new NeuralNetwork(new int[] {784, 16, 16, 10}, cost, precision);		
+	}
+	
+	public HandwrittenDigitReader(float learningrate, String checkpoint, boolean shared) {
+		this.learningrate = learningrate;
+		
+		long time = System.nanoTime();
+		this.network = shared ? Checkpoint.share(checkpoint) : Checkpoint.load(checkpoint);
+		System.out.println("\n" + (shared ? "mapped" : "loaded") + " the neural network from " + checkpoint + " in " + (System.nanoTime() - time) / 1000 + "us");
 	}
 
 	private void activate(Activation[] activation, Derivative[] derivative) {
 		network.activate(activation, derivative);
 	}
 	
+	private void optimize(Optimizer optimizer, Schedule schedule) {
+		network.optimize(optimizer, schedule);
+	}
+	
+	private void listen(TrainingListener listener) {
+		network.listen(listener);
+	}
+	
+	private void parallelize(ForkJoinPool pool) {
+		network.parallelize(pool);
+	}
+	
+	private void checkpoint(String file) {
+		network.checkpoint(file);
+	}
+	
 	private void initialize() {
 		network.initialize();
 		System.out.println("\ninitialized the weights and biases of the neural network");
 	}
 	
-	private float train(int cap, int epochs, int batches) {
-		ArrayList<Matrix> in = new ArrayList<Matrix>();
-		ArrayList<Matrix> res = new ArrayList<Matrix>();
-		for(int c = 0; c < cap; c++) {
-			double[] tmp = new double[784];
-			int p = 0;
-			for(int i = 0; i < train_data.get(c).length; i++) {
-				for(int j = 0; j < train_data.get(c)[i].length; j++) {
-					tmp[p++] = train_data.get(c)[i][j] / 255d;
-				}
-			}
-			in.add(new Matrix(tmp, tmp.length, 1));
-			tmp = new double[10];
-			for(int i = 0; i < tmp.length; i++) {
-				if(i == train_labels[c]) {
-					tmp[i] = 1;
-					break;
-				}
-			}
-			res.add(new Matrix(tmp, tmp.length, 1));
-		}
-		System.out.println("fully parsed the training data");
+	/**
+	 * trains on all samples, with the given amount of asynchronous threads if there are any
+	 */
+	private float train(int epochs, int batches, int threads) {
 		System.out.println("\nstarting the training now:");
-		return network.train(in.toArray(new Matrix[in.size()]), res.toArray(new Matrix[res.size()]), epochs, batches, learningrate);
+		if(threads > 0)
+			return network.trainAsync(TrainData.train_data, epochs, batches, learningrate, threads);
+		return network.train(TrainData.train_data, epochs, batches, learningrate);
 	}
 	
-	private float test(int cap) {
-		int correct = 0;
-		
+	/**
+	 * trains for at most the given amount of epochs, holding the last 10000 samples back for validation
+	 */
+	private float trainUntil(int epochs, int batches, double target, int patience) {
+		System.out.println("\nstarting the training now:");
+		return network.trainUntil(TrainData.train_data, 10000, epochs, batches, learningrate, target, patience);
+	}
+	
+	private float test() {
 		System.out.println("\ntesting the neural network now:");
 		
-		for(int c = 0; c < cap; c++) {
-			double[] tmp = new double[784];
-			int p = 0;
-			for(int i = 0; i < test_data.get(c).length; i++) {
-				for(int j = 0; j < test_data.get(c)[i].length; j++) {
-					tmp[p++] = test_data.get(c)[i][j] / 255d;
-				}
-			}
-			if(test_labels[c] == Matrix.max(network.process(new Matrix(tmp, tmp.length, 1)))[0]) {
-				correct++;
-			}		
+		//the test set is split across all cores
+		Evaluation evaluation = Evaluation.evaluate(network, TestData.test_data, 256, ForkJoinPool.commonPool());
+		System.out.println(evaluation);
+		return (float) evaluation.accuracy() * 100f;
+	}
+	
+	/**
+	 * tests the int8 form of the network and compares it to the given accuracy of the network itself
+	 */
+	private void quantize(float prec) {
+		QuantizedNetwork quantized = QuantizedNetwork.quantize(network);
+		System.out.println("\ntesting the quantized " + quantized + " now:");
+		
+		Evaluation evaluation = Evaluation.evaluate(quantized, TestData.test_data, 256, ForkJoinPool.commonPool());
+		System.out.println(evaluation);
+		System.out.println(String.format("Accuracy change: %+.2f%%", evaluation.accuracy() * 100 - prec));
+	}
+	
+	/**
+	 * prunes the network to higher and higher sparsities with an epoch of retraining after every step,
+	 * and compares the accuracy, the size and the latency of its sparse form to the given accuracy
+	 */
+	private void prune(float prec) {
+		//the network gathers dense inputs like the sparse one for the latency, so that only their weights differ
+		network.sparse(false);
+		double single = latency(network, 1), batched = latency(network, 256);
+		network.sparse(true);
+		
+		for(double sparsity : new double[] {.5, .75, .9, .95}) {
+			network.prune(sparsity);
+			Evaluation pruned = Evaluation.evaluate(network, TestData.test_data, 256, ForkJoinPool.commonPool());
+			System.out.println(String.format("\npruned %.0f%% of the weights of every layer, accuracy: %.2f%% (%+.2f%%), retraining for one epoch:",
+					sparsity * 100, pruned.accuracy() * 100, pruned.accuracy() * 100 - prec));
+			network.train(TrainData.train_data, 1, 32, learningrate);
+			
+			SparseNetwork sparse = SparseNetwork.compress(network);
+			System.out.println(sparse);
+			Evaluation evaluation = Evaluation.evaluate(sparse, TestData.test_data, 256, ForkJoinPool.commonPool());
+			System.out.println(String.format("Accuracy: %.2f%% (%+.2f%%) Latency: %.2fus per single sample instead of %.2fus, %.2fus per sample in batches of 256 instead of %.2fus",
+					evaluation.accuracy() * 100, evaluation.accuracy() * 100 - prec, latency(sparse, 1), single, latency(sparse, 256), batched));
 		}
-		System.out.println("Accuracy: " + (correct * 100f / cap) + "%");
-		return correct * 100f / cap;
+	}
+	
+	/**
+	 * the time the classifier takes per sample of the test set in batches of the given size on
+	 * the calling thread in microseconds, the test set is classified once before for the JIT
+	 */
+	private static double latency(Classifier classifier, int batches) {
+		int[] classes = new int[TestData.test_data.size()];
+		classifier.classify(TestData.test_data, 0, classes.length, batches, classes, null);
+		long time = System.nanoTime();
+		classifier.classify(TestData.test_data, 0, classes.length, batches, classes, null);
+		return (System.nanoTime() - time) / 1000.0 / classes.length;
 	}
 
 }
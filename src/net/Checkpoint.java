@@ -0,0 +1,302 @@
+package net;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+import utils.Activation;
+import utils.Arena;
+import utils.Cost;
+import utils.Derivative;
+import utils.Matrix;
+import utils.Precision;
+
+/**
+ * a versioned binary file format for the layers, activation functions and parameters of a
+ * neural network. everything is stored in little-endian byte order:
+ *
+ * - the magic number, the version, the precision, the cost function and the amount of layers
+ * - the size of every layer and the activation function and derivative of every weighted layer
+ * - zeros up to the next multiple of 64 bytes, so that the parameters are aligned
+ * - the weights (row by row) and then the biases of every layer in the stored precision
+ * - the CRC32 checksum of everything before it as a long
+ *
+ * loading maps the file into memory and copies the parameters straight from the mapped
+ * pages into the matrices of the network, so nothing else needs to be read or parsed.
+ * sharing keeps the parameters in the mapped pages instead, so that all processes that
+ * share the same checkpoint read the same copy of the weights in the page cache
+ */
+public class Checkpoint {
+
+	public static final int MAGIC_NUMBER = 0x4D4E4E31; // "MNN1"
+	public static final int VERSION = 1;
+
+	/**
+	 * the alignment of the parameters from the start of the file
+	 */
+	static final int ALIGNMENT = 64;
+
+	/**
+	 * the activation functions, derivatives and cost functions that can be stored,
+	 * identified by their index. new ones may only ever be appended
+	 */
+	private static final Activation[] ACTIVATIONS = {Activation.Identity, Activation.Sigmoid, Activation.ReLU, Activation.LeakyReLU, Activation.SmoothReLU, Activation.Tanh, Activation.FastTanh};
+	private static final Derivative[] DERIVATIVES = {Derivative.Identity, Derivative.Sigmoid, Derivative.ReLU, Derivative.LeakyReLU, Derivative.SmoothReLU, Derivative.Tanh, Derivative.FastTanh};
+	private static final Cost[] COSTS = {Cost.QUADRATIC, Cost.CROSS_ENTROPY};
+
+	private Checkpoint() {
+	}
+
+	/**
+	 * writes the network to the given file, through a temporary file that replaces it
+	 * at the end so that a crash never leaves a half written checkpoint behind
+	 */
+	public static void save(NeuralNetwork network, String file) {
+		int[] layers = network.getLayers();
+		int header = header(layers.length);
+		int size = Precision.SINGLE == network.getPrecision() ? Float.BYTES : Double.BYTES;
+		long length = header + parameters(layers) * size;
+
+		ByteBuffer bb = ByteBuffer.allocate((int) length + Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		bb.putInt(MAGIC_NUMBER);
+		bb.putInt(VERSION);
+		bb.putInt(network.getPrecision().ordinal());
+		bb.putInt(index(COSTS, network.getCost()));
+		bb.putInt(layers.length);
+		for(int l : layers) {
+			bb.putInt(l);
+		}
+		for(int i = 0; i < layers.length - 1; i++) {
+			bb.putInt(index(ACTIVATIONS, network.getActivation()[i]));
+			bb.putInt(index(DERIVATIVES, network.getDerivative()[i]));
+		}
+		bb.position(header);
+
+		for(int i = 0; i < layers.length - 1; i++) {
+			put(bb, network.getWeights()[i]);
+			put(bb, network.getBiases()[i]);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(bb.array(), 0, (int) length);
+		bb.putLong(crc.getValue());
+		bb.flip();
+
+		try {
+			Path path = Paths.get(file).toAbsolutePath();
+			Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+			try(FileChannel chan = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				while(bb.hasRemaining()) {
+					chan.write(bb);
+				}
+				chan.force(true);
+			}
+			Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * creates a neural network from the given file
+	 */
+	public static NeuralNetwork load(String file) {
+		ByteBuffer bb = map(file);
+		int[] layers = layers(bb);
+		NeuralNetwork network = new NeuralNetwork(layers, COSTS[id(bb.getInt(12), COSTS.length)], Precision.values()[id(bb.getInt(8), 2)]);
+		read(bb, network);
+		return network;
+	}
+
+	/**
+	 * creates a neural network from the given file with its parameters in memory of the arena,
+	 * which must stay open as long as the network is used
+	 */
+	public static NeuralNetwork load(String file, Arena arena) {
+		NeuralNetwork network = load(file);
+		for(int i = 0; i < network.getLayers().length - 1; i++) {
+			network.getWeights()[i] = arena.copy(network.getWeights()[i]);
+			network.getBiases()[i] = arena.copy(network.getBiases()[i]);
+		}
+		return network;
+	}
+
+	/**
+	 * creates a neural network of which the parameters stay in the read-only mapped file, so every
+	 * process that shares the checkpoint uses the same pages of memory for them. the network can
+	 * only be used for inference, and the file must not be replaced while it is used. if the
+	 * byte order of the machine is not little-endian, the parameters are loaded onto the heap
+	 */
+	public static NeuralNetwork share(String file) {
+		if(ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN)
+			return load(file);
+
+		ByteBuffer bb = map(file);
+		int[] layers = layers(bb);
+		NeuralNetwork network = new NeuralNetwork(layers, COSTS[id(bb.getInt(12), COSTS.length)], Precision.values()[id(bb.getInt(8), 2)]);
+		activate(bb, network);
+
+		int size = network.getPrecision() == Precision.SINGLE ? Float.BYTES : Double.BYTES;
+		bb.position(header(layers.length));
+		for(int i = 0; i < layers.length - 1; i++) {
+			network.getWeights()[i] = new Matrix(bb, layers[i + 1], layers[i], network.getPrecision());
+			bb.position(bb.position() + layers[i + 1] * layers[i] * size);
+			network.getBiases()[i] = new Matrix(bb, layers[i + 1], 1, network.getPrecision());
+			bb.position(bb.position() + layers[i + 1] * size);
+		}
+		return network;
+	}
+
+	/**
+	 * loads the parameters of the given file into a network of the same layers and precision
+	 */
+	public static void restore(NeuralNetwork network, String file) {
+		ByteBuffer bb = map(file);
+		if(!java.util.Arrays.equals(layers(bb), network.getLayers()))
+			throw new RuntimeException("The layers of the checkpoint do not match the network");
+		if(bb.getInt(8) != network.getPrecision().ordinal())
+			throw new RuntimeException("The precision of the checkpoint does not match the network");
+		read(bb, network);
+	}
+
+	/**
+	 * maps the file and checks its magic number, version, size and checksum
+	 */
+	static ByteBuffer map(String file) {
+		ByteBuffer bb;
+		try(RandomAccessFile f = new RandomAccessFile(file, "r"); FileChannel chan = f.getChannel()) {
+			bb = chan.map(FileChannel.MapMode.READ_ONLY, 0, chan.size()).order(ByteOrder.LITTLE_ENDIAN);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		if(bb.limit() < 20 + Long.BYTES || bb.getInt(0) != MAGIC_NUMBER)
+			throw new RuntimeException("This is not a checkpoint file.");
+		if(bb.getInt(4) != VERSION)
+			throw new RuntimeException(String.format("Unsupported checkpoint version %d", bb.getInt(4)));
+
+		int count = bb.getInt(16);
+		if(count < 2 || header(count) > bb.limit())
+			throw new RuntimeException("The checkpoint is corrupt");
+
+		int[] layers = new int[count];
+		for(int i = 0; i < count; i++) {
+			layers[i] = bb.getInt(20 + i * Integer.BYTES);
+			if(layers[i] <= 0)
+				throw new RuntimeException("The checkpoint is corrupt");
+		}
+		int size = bb.getInt(8) == Precision.SINGLE.ordinal() ? Float.BYTES : Double.BYTES;
+		long length = header(count) + parameters(layers) * size;
+		if(bb.limit() != length + Long.BYTES)
+			throw new RuntimeException("The checkpoint is truncated or corrupt");
+
+		CRC32 crc = new CRC32();
+		crc.update(bb.duplicate().position(0).limit((int) length));
+		if(crc.getValue() != bb.getLong((int) length))
+			throw new RuntimeException("The checksum of the checkpoint does not match");
+		return bb;
+	}
+
+	/**
+	 * the sizes of the layers in a mapped checkpoint
+	 */
+	static int[] layers(ByteBuffer bb) {
+		int[] layers = new int[bb.getInt(16)];
+		for(int i = 0; i < layers.length; i++) {
+			layers[i] = bb.getInt(20 + i * Integer.BYTES);
+		}
+		return layers;
+	}
+
+	/**
+	 * the byte offset of the parameters of a network with the given amount of layers
+	 */
+	static int header(int count) {
+		int size = 5 * Integer.BYTES + count * Integer.BYTES + 2 * (count - 1) * Integer.BYTES;
+		return (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+	}
+
+	/**
+	 * the amount of weights and biases of a network with the given layers
+	 */
+	static long parameters(int[] layers) {
+		long count = 0;
+		for(int i = 0; i < layers.length - 1; i++) {
+			count += (long) layers[i + 1] * layers[i] + layers[i + 1];
+		}
+		return count;
+	}
+
+	private static void read(ByteBuffer bb, NeuralNetwork network) {
+		int[] layers = network.getLayers();
+		activate(bb, network);
+
+		bb.position(header(layers.length));
+		for(int i = 0; i < layers.length - 1; i++) {
+			network.getWeights()[i] = get(bb, layers[i + 1], layers[i], network.getPrecision());
+			network.getBiases()[i] = get(bb, layers[i + 1], 1, network.getPrecision());
+		}
+	}
+
+	/**
+	 * sets the activation functions and derivatives stored in the mapped checkpoint
+	 */
+	private static void activate(ByteBuffer bb, NeuralNetwork network) {
+		int[] layers = network.getLayers();
+		Activation[] activation = new Activation[layers.length - 1];
+		Derivative[] derivative = new Derivative[layers.length - 1];
+		int p = 20 + layers.length * Integer.BYTES;
+		for(int i = 0; i < layers.length - 1; i++) {
+			activation[i] = ACTIVATIONS[id(bb.getInt(p), ACTIVATIONS.length)];
+			derivative[i] = DERIVATIVES[id(bb.getInt(p + Integer.BYTES), DERIVATIVES.length)];
+			p += 2 * Integer.BYTES;
+		}
+		network.activate(activation, derivative);
+	}
+
+	private static void put(ByteBuffer bb, Matrix m) {
+		if(m.isOffHeap())
+			m = m.copy();
+		if(m.getFloats() != null) {
+			bb.asFloatBuffer().put(m.getFloats());
+			bb.position(bb.position() + m.getFloats().length * Float.BYTES);
+		} else {
+			bb.asDoubleBuffer().put(m.getValues());
+			bb.position(bb.position() + m.getValues().length * Double.BYTES);
+		}
+	}
+
+	private static Matrix get(ByteBuffer bb, int rows, int cols, Precision precision) {
+		Matrix m = new Matrix(rows, cols, precision);
+		if(precision == Precision.SINGLE) {
+			bb.asFloatBuffer().get(m.getFloats());
+			bb.position(bb.position() + rows * cols * Float.BYTES);
+		} else {
+			bb.asDoubleBuffer().get(m.getValues());
+			bb.position(bb.position() + rows * cols * Double.BYTES);
+		}
+		return m;
+	}
+
+	private static <T> int index(T[] known, T value) {
+		for(int i = 0; i < known.length; i++) {
+			if(known[i] == value)
+				return i;
+		}
+		throw new RuntimeException("Only the predefined activation, derivative and cost functions can be stored");
+	}
+
+	private static int id(int id, int count) {
+		if(id < 0 || id >= count)
+			throw new RuntimeException("The checkpoint is corrupt");
+		return id;
+	}
+
+}
@@ -0,0 +1,18 @@
+package net;
+
+import utils.Dataset;
+
+/**
+ * anything that predicts the classes of the samples of a dataset, so that the
+ * trained network and its quantized form can be evaluated the same way
+ */
+public interface Classifier {
+
+	/**
+	 * classifies the samples from (inclusive) to (exclusive) of the dataset in batches,
+	 * writing the predicted class of sample i into classes[i - from] and, if scores is
+	 * not null, its outputs into scores from (i - from) * outputs on
+	 */
+	public void classify(Dataset data, int from, int to, int batches, int[] classes, double[] scores);
+
+}
@@ -0,0 +1,181 @@
+package net;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import utils.Dataset;
+
+/**
+ * the result of classifying a whole dataset: the confusion matrix with one row per
+ * expected and one column per predicted class, the metrics derived from it and the
+ * throughput of the evaluation
+ */
+public class Evaluation {
+
+	/**
+	 * the smallest amount of samples a shard of the dataset holds
+	 */
+	private static final int SHARD = 1024;
+
+	private final long[][] confusion;
+	private final long samples;
+	private final long nanos;
+
+	private Evaluation(long[][] confusion, long samples, long nanos) {
+		this.confusion = confusion;
+		this.samples = samples;
+		this.nanos = nanos;
+	}
+
+	/**
+	 * classifies every sample of the dataset in batches, with the shards of the
+	 * dataset spread across the given pool or on the calling thread if it is null
+	 */
+	public static Evaluation evaluate(Classifier network, Dataset data, int batches, ForkJoinPool pool) {
+		return evaluate(network, data, 0, data.size(), batches, pool);
+	}
+
+	/**
+	 * classifies the samples from (inclusive) to (exclusive) of the dataset like evaluate does
+	 * with the whole dataset
+	 */
+	public static Evaluation evaluate(Classifier network, Dataset data, int from, int to, int batches, ForkJoinPool pool) {
+		long time = System.nanoTime();
+		Shard all = new Shard(network, data, from, to, batches, pool == null ? to - from : Math.max(SHARD, (to - from) / (4 * pool.getParallelism())));
+		long[] counts = pool == null ? all.compute() : pool.invoke(all);
+
+		int classes = data.classes();
+		long[][] confusion = new long[classes][classes];
+		for(int i = 0; i < classes; i++) {
+			for(int j = 0; j < classes; j++) {
+				confusion[i][j] = counts[i * classes + j];
+			}
+		}
+		return new Evaluation(confusion, to - from, System.nanoTime() - time);
+	}
+
+	/**
+	 * how often a sample of the expected class was classified as the predicted class
+	 */
+	public long get(int expected, int predicted) {
+		return confusion[expected][predicted];
+	}
+
+	public int getClasses() {
+		return confusion.length;
+	}
+
+	public long getSamples() {
+		return samples;
+	}
+
+	/**
+	 * the share of correctly classified samples
+	 */
+	public double accuracy() {
+		long correct = 0;
+		for(int i = 0; i < confusion.length; i++) {
+			correct += confusion[i][i];
+		}
+		return samples == 0 ? 0 : correct / (double) samples;
+	}
+
+	/**
+	 * the share of the samples classified as c that really are of class c
+	 */
+	public double precision(int c) {
+		long predicted = 0;
+		for(int i = 0; i < confusion.length; i++) {
+			predicted += confusion[i][c];
+		}
+		return predicted == 0 ? 0 : confusion[c][c] / (double) predicted;
+	}
+
+	/**
+	 * the share of the samples of class c that were classified as c
+	 */
+	public double recall(int c) {
+		long expected = 0;
+		for(int j = 0; j < confusion.length; j++) {
+			expected += confusion[c][j];
+		}
+		return expected == 0 ? 0 : confusion[c][c] / (double) expected;
+	}
+
+	/**
+	 * the amount of samples classified per second
+	 */
+	public double throughput() {
+		return samples / (nanos / 1.0E9);
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+
+		sb.append("expected \\ predicted\n      ");
+		for(int j = 0; j < confusion.length; j++) {
+			sb.append(String.format("%6d", j));
+		}
+		sb.append("   precision  recall\n");
+		for(int i = 0; i < confusion.length; i++) {
+			sb.append(String.format("%6d", i));
+			for(int j = 0; j < confusion.length; j++) {
+				sb.append(String.format("%6d", confusion[i][j]));
+			}
+			sb.append(String.format("   %8.2f%% %6.2f%%\n", precision(i) * 100, recall(i) * 100));
+		}
+		sb.append(String.format("Accuracy: %.2f%% Throughput: %d samples/sec", accuracy() * 100, (long) throughput()));
+		return sb.toString();
+	}
+
+	/**
+	 * classifies the samples from (inclusive) to (exclusive) by splitting them in halves until
+	 * a shard holds at most shard samples. every shard counts into its own array, the arrays
+	 * are only added up once the shards are done
+	 */
+	private static class Shard extends RecursiveTask<long[]> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Classifier network;
+		private final Dataset data;
+		private final int from, to, batches, shard;
+
+		Shard(Classifier network, Dataset data, int from, int to, int batches, int shard) {
+			this.network = network;
+			this.data = data;
+			this.from = from;
+			this.to = to;
+			this.batches = batches;
+			this.shard = shard;
+		}
+
+		@Override
+		protected long[] compute() {
+			int classes = data.classes();
+
+			if(to - from <= shard) {
+				long[] counts = new long[classes * classes];
+				int[] predicted = new int[to - from];
+				if(to > from)
+					network.classify(data, from, to, batches, predicted, null);
+
+				for(int i = from; i < to; i++) {
+					counts[data.label(i) * classes + predicted[i - from]]++;
+				}
+				return counts;
+			}
+			int mid = (from + to) >>> 1;
+			Shard right = new Shard(network, data, mid, to, batches, shard);
+			right.fork();
+			long[] counts = new Shard(network, data, from, mid, batches, shard).compute();
+			long[] other = right.join();
+
+			for(int i = 0; i < counts.length; i++) {
+				counts[i] += other[i];
+			}
+			return counts;
+		}
+	}
+
+}
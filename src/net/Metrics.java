@@ -0,0 +1,172 @@
+package net;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * what a batch or a whole epoch of training took: its samples, its wall time, the time spent
+ * on the forward and backward pass of every layer and on the update of the parameters, the
+ * bytes allocated by the threads that trained on it and the time the garbage collectors took.
+ * the layer and update times are summed over all threads, so with a pool they can add up to
+ * more than the wall time. all times are in nanoseconds (but the collections in milliseconds)
+ */
+public class Metrics {
+	
+	/**
+	 * the bean that counts the bytes allocated by every thread, null if the JVM does not offer it
+	 */
+	private static final com.sun.management.ThreadMXBean THREADS = threads();
+	private static final List<GarbageCollectorMXBean> COLLECTORS = ManagementFactory.getGarbageCollectorMXBeans();
+	
+	/**
+	 * the epoch (starting at 0) and the batch within it, which is -1 for the metrics of a whole epoch
+	 */
+	int epoch, batch;
+	
+	long samples, nanos, update, allocated, collections;
+	
+	final long[] forward, backward;
+	
+	Metrics(int layers) {
+		this.forward = new long[layers];
+		this.backward = new long[layers];
+	}
+	
+	public int getEpoch() {
+		return epoch;
+	}
+	
+	public int getBatch() {
+		return batch;
+	}
+	
+	/**
+	 * whether these are the metrics of a whole epoch instead of a single batch
+	 */
+	public boolean isEpoch() {
+		return batch < 0;
+	}
+	
+	/**
+	 * the amount of weighted layers
+	 */
+	public int getLayers() {
+		return forward.length;
+	}
+	
+	public long getSamples() {
+		return samples;
+	}
+	
+	public long getNanos() {
+		return nanos;
+	}
+	
+	/**
+	 * the amount of samples trained on per second
+	 */
+	public double getThroughput() {
+		return nanos == 0 ? 0 : samples / (nanos / 1.0E9);
+	}
+	
+	/**
+	 * the time the forward pass through the given layer took
+	 */
+	public long getForward(int layer) {
+		return forward[layer];
+	}
+	
+	/**
+	 * the time the back-propagation through the given layer took
+	 */
+	public long getBackward(int layer) {
+		return backward[layer];
+	}
+	
+	/**
+	 * the time the optimizer took to update the parameters
+	 */
+	public long getUpdate() {
+		return update;
+	}
+	
+	/**
+	 * the bytes allocated by the training threads, 0 if the JVM does not count them
+	 */
+	public long getAllocatedBytes() {
+		return allocated;
+	}
+	
+	/**
+	 * the time the garbage collectors took in milliseconds
+	 */
+	public long getCollectionMillis() {
+		return collections;
+	}
+	
+	/**
+	 * a copy of these metrics, as the metrics handed to a listener are reused for the next batch
+	 */
+	public Metrics copy() {
+		Metrics copy = new Metrics(forward.length);
+		copy.epoch = epoch;
+		copy.batch = batch;
+		copy.add(this);
+		return copy;
+	}
+	
+	void clear() {
+		samples = nanos = update = allocated = collections = 0;
+		Arrays.fill(forward, 0);
+		Arrays.fill(backward, 0);
+	}
+	
+	void add(Metrics m) {
+		samples += m.samples;
+		nanos += m.nanos;
+		update += m.update;
+		allocated += m.allocated;
+		collections += m.collections;
+		for(int i = 0; i < forward.length; i++) {
+			forward[i] += m.forward[i];
+			backward[i] += m.backward[i];
+		}
+	}
+	
+	/**
+	 * the bytes the current thread has allocated so far, 0 if the JVM does not count them
+	 */
+	static long allocated() {
+		return THREADS != null && THREADS.isThreadAllocatedMemoryEnabled() ? THREADS.getCurrentThreadAllocatedBytes() : 0;
+	}
+	
+	private static com.sun.management.ThreadMXBean threads() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		return bean instanceof com.sun.management.ThreadMXBean ? (com.sun.management.ThreadMXBean) bean : null;
+	}
+	
+	/**
+	 * the time all garbage collectors have taken so far in milliseconds
+	 */
+	static long collections() {
+		long total = 0;
+		for(int i = 0; i < COLLECTORS.size(); i++) {
+			total += Math.max(0, COLLECTORS.get(i).getCollectionTime());
+		}
+		return total;
+	}
+	
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(isEpoch() ? "Epoch: " + (epoch + 1) : "Epoch: " + (epoch + 1) + " Batch: " + (batch + 1));
+		sb.append(String.format(" Samples: %d Time: %.3fms Throughput: %d samples/sec", samples, nanos / 1.0E6, (long) getThroughput()));
+		for(int i = 0; i < forward.length; i++) {
+			sb.append(String.format(" Layer %d: %.3f/%.3fms", i + 1, forward[i] / 1.0E6, backward[i] / 1.0E6));
+		}
+		sb.append(String.format(" Update: %.3fms Allocated: %d bytes GC: %dms", update / 1.0E6, allocated, collections));
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,104 @@
+package net;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * writes the metrics of every epoch (and optionally every batch) to a file, one line each,
+ * either as CSV with a header line or as JSON lines. the times are written in microseconds
+ */
+public class MetricsWriter implements TrainingListener, AutoCloseable {
+	
+	private final Writer out;
+	private final boolean json, batches;
+	private boolean header;
+	
+	private MetricsWriter(String file, boolean json, boolean batches) {
+		try {
+			this.out = new BufferedWriter(new FileWriter(file));
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		this.json = json;
+		this.batches = batches;
+	}
+	
+	/**
+	 * writes the metrics as CSV, with a line per batch as well if batches is true
+	 */
+	public static MetricsWriter csv(String file, boolean batches) {
+		return new MetricsWriter(file, false, batches);
+	}
+	
+	/**
+	 * writes the metrics as one JSON object per line, with a line per batch as well if batches is true
+	 */
+	public static MetricsWriter json(String file, boolean batches) {
+		return new MetricsWriter(file, true, batches);
+	}
+	
+	public void batch(Metrics metrics) {
+		if(batches)
+			write(metrics);
+	}
+	
+	public void epoch(Metrics metrics) {
+		write(metrics);
+		try {
+			out.flush();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	private void write(Metrics m) {
+		StringBuilder sb = new StringBuilder();
+		if(json) {
+			sb.append("{\"type\":\"").append(m.isEpoch() ? "epoch" : "batch").append('"');
+			sb.append(",\"epoch\":").append(m.getEpoch()).append(",\"batch\":").append(m.getBatch());
+			sb.append(",\"samples\":").append(m.getSamples()).append(",\"time_us\":").append(m.getNanos() / 1000);
+			sb.append(",\"samples_per_sec\":").append((long) m.getThroughput());
+			sb.append(",\"forward_us\":[");
+			for(int i = 0; i < m.getLayers(); i++) {
+				sb.append(i == 0 ? "" : ",").append(m.getForward(i) / 1000);
+			}
+			sb.append("],\"backward_us\":[");
+			for(int i = 0; i < m.getLayers(); i++) {
+				sb.append(i == 0 ? "" : ",").append(m.getBackward(i) / 1000);
+			}
+			sb.append("],\"update_us\":").append(m.getUpdate() / 1000);
+			sb.append(",\"allocated_bytes\":").append(m.getAllocatedBytes()).append(",\"gc_ms\":").append(m.getCollectionMillis()).append("}\n");
+		} else {
+			if(!header) {
+				sb.append("type,epoch,batch,samples,time_us,samples_per_sec");
+				for(int i = 0; i < m.getLayers(); i++) {
+					sb.append(",forward_").append(i + 1).append("_us,backward_").append(i + 1).append("_us");
+				}
+				sb.append(",update_us,allocated_bytes,gc_ms\n");
+				header = true;
+			}
+			sb.append(m.isEpoch() ? "epoch" : "batch").append(',').append(m.getEpoch()).append(',').append(m.getBatch());
+			sb.append(',').append(m.getSamples()).append(',').append(m.getNanos() / 1000).append(',').append((long) m.getThroughput());
+			for(int i = 0; i < m.getLayers(); i++) {
+				sb.append(',').append(m.getForward(i) / 1000).append(',').append(m.getBackward(i) / 1000);
+			}
+			sb.append(',').append(m.getUpdate() / 1000).append(',').append(m.getAllocatedBytes()).append(',').append(m.getCollectionMillis()).append('\n');
+		}
+		try {
+			out.write(sb.toString());
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	public void close() {
+		try {
+			out.close();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+}
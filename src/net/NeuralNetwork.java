@@ -1,14 +1,24 @@
 package net;
 
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 import utils.Activation;
 import utils.Cost;
+import utils.Dataset;
 import utils.Derivative;
+import utils.Events;
 import utils.MNIST;
 import utils.Matrix;
+import utils.Precision;
+import utils.Prefetcher;
+import utils.SparseBatch;
 
-public class NeuralNetwork {
+public class NeuralNetwork implements Classifier {
 	
 	/**
 	 * an array of integers in which each number
@@ -16,6 +26,11 @@ public class NeuralNetwork {
 	 */
 	private final int[] layers;
 	
+	/**
+	 * the sizes of the layers as they appear in the flight recorder events
+	 */
+	private final String shape;
+	
 	/**
 	 * a function that is applied in order to
 	 * activate a neuron
@@ -43,12 +58,76 @@ public class NeuralNetwork {
 	 */
 	private Matrix[] weights;
 	
+	/**
+	 * the precision all parameters, activations and gradients are stored in
+	 */
+	private final Precision precision;
+	
+	/**
+	 * the pool every batch is split across while training,
+	 * the batches are processed on the calling thread if there is none
+	 */
+	private ForkJoinPool pool;
+	
+	/**
+	 * the smallest amount of samples a batch is split into
+	 */
+	private static final int GRAIN = 8;
+	
+	/**
+	 * the workspaces used while training, two per slot so that the full
+	 * batches and the smaller last batch of an epoch can both keep theirs
+	 */
+	private Workspace[] workspaces = new Workspace[0];
+	
+	/**
+	 * the file a checkpoint is written to after every epoch of training, or null
+	 */
+	private String checkpoint;
+	
+	/**
+	 * the rule the gradients of every batch are applied with
+	 */
+	private Optimizer optimizer = Optimizer.sgd();
+	
+	/**
+	 * the learning rate of every epoch
+	 */
+	private Schedule schedule = Schedule.CONSTANT;
+	
+	/**
+	 * the listeners told about the metrics of every batch and epoch, the
+	 * layers and the update are only timed while there are any
+	 */
+	private final List<TrainingListener> listeners = new CopyOnWriteArrayList<TrainingListener>();
+	
+	/**
+	 * whether the inputs of datasets that can gather sparse batches are gathered as such,
+	 * so that the first layer only works on the nonzero inputs
+	 */
+	private boolean sparse = true;
+	
+	/**
+	 * a one for every weight that is kept and a zero for every pruned weight of each layer,
+	 * or null if the network has not been pruned since it was initialized
+	 */
+	private Matrix[] masks;
+	
 	/**
 	 * 
 	 */
 	public NeuralNetwork(int[] sizes, Cost cost) {
+		this(sizes, cost, Precision.DOUBLE);
+	}
+	
+	/**
+	 * creates a neural network that works in the given precision end to end
+	 */
+	public NeuralNetwork(int[] sizes, Cost cost, Precision precision) {
 		this.layers = sizes;
+		this.shape = Events.shape(sizes);
 		this.cost = cost;
+		this.precision = precision;
 		
 		this.biases = new Matrix[sizes.length - 1];
 		this.weights = new Matrix[sizes.length - 1];	
@@ -60,6 +139,83 @@ public class NeuralNetwork {
 	public void activate(Activation[] activation, Derivative[] derivative) {
 		this.activation = activation;
 		this.derivative = derivative;
+		//the workspaces only keep the weighted sums the derivatives need
+		this.workspaces = new Workspace[0];
+	}
+	
+	public Precision getPrecision() {
+		return precision;
+	}
+	
+	/**
+	 * the amount of neurons on every layer
+	 */
+	public int[] getLayers() {
+		return layers.clone();
+	}
+	
+	Cost getCost() {
+		return cost;
+	}
+	
+	Activation[] getActivation() {
+		return activation;
+	}
+	
+	Derivative[] getDerivative() {
+		return derivative;
+	}
+	
+	Matrix[] getWeights() {
+		return weights;
+	}
+	
+	Matrix[] getBiases() {
+		return biases;
+	}
+	
+	/**
+	 * saves a checkpoint to the given file after every epoch of training,
+	 * or stops saving them if the file is null
+	 */
+	public void checkpoint(String file) {
+		this.checkpoint = file;
+	}
+	
+	/**
+	 * trains with the given optimizer and learning rate schedule from now on,
+	 * plain gradient descent with a constant learning rate is the default
+	 */
+	public void optimize(Optimizer optimizer, Schedule schedule) {
+		this.optimizer = optimizer;
+		this.schedule = schedule;
+	}
+	
+	/**
+	 * tells the listener about the metrics of every batch and epoch of training from now on
+	 */
+	public void listen(TrainingListener listener) {
+		listeners.add(listener);
+	}
+	
+	public void unlisten(TrainingListener listener) {
+		listeners.remove(listener);
+	}
+	
+	/**
+	 * splits every batch across the threads of the given pool while training,
+	 * or trains on the calling thread again if the pool is null
+	 */
+	public void parallelize(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+	
+	/**
+	 * whether to gather the inputs of datasets that support it as sparse batches while training
+	 * and classifying, which is the default. the results only differ by the rounding of the sums
+	 */
+	public void sparse(boolean sparse) {
+		this.sparse = sparse;
 	}
 	
 	/**
@@ -71,9 +227,9 @@ public class NeuralNetwork {
 		//for every layer of the neural network
 		for(int i = 0; i < layers.length - 1; i++) {
 			//the biases of each layer are stored in a column vector
-			biases[i] = new Matrix(layers[i + 1], 1);
+			biases[i] = new Matrix(layers[i + 1], 1, precision);
 			//the weights of each layer are stored in a matrix
-			weights[i] = new Matrix(layers[i + 1], layers[i]);
+			weights[i] = new Matrix(layers[i + 1], layers[i], precision);
 			
 			//for every neuron on the current layer
 			for(int j = 0; j < layers[i + 1]; j++) {
@@ -87,125 +243,710 @@ public class NeuralNetwork {
 				}
 			}
 		}
+		masks = null;
+		//the history of the optimizer belongs to the old parameters
+		optimizer.reset();
+	}
+	
+	/**
+	 * sets the given share of the weights of every layer with the smallest magnitudes to zero
+	 * and keeps them at zero while training on, until the network is initialized again. a short
+	 * retraining after pruning usually wins back most of the accuracy that was lost. pruning can
+	 * be repeated with a higher sparsity, as the weights that are zero count as the smallest
+	 */
+	public void prune(double sparsity) {
+		double[] all = new double[layers.length - 1];
+		Arrays.fill(all, sparsity);
+		prune(all);
+	}
+	
+	/**
+	 * prunes every layer to its own sparsity
+	 */
+	public void prune(double[] sparsity) {
+		if(sparsity.length != layers.length - 1)
+			throw new RuntimeException("Layer count mismatch");
+		trainable();
+		if(masks == null)
+			masks = new Matrix[layers.length - 1];
+		
+		for(int i = 0; i < layers.length - 1; i++) {
+			if(!(sparsity[i] >= 0 && sparsity[i] <= 1))
+				throw new RuntimeException("The sparsity must be between 0 and 1");
+			masks[i] = prune(weights[i], sparsity[i], masks[i]);
+		}
+	}
+	
+	/**
+	 * zeroes the given share of the weights with the smallest magnitudes (the first ones of equal
+	 * magnitudes) and writes a one for every remaining weight into the mask, or a new mask if it is null
+	 */
+	private Matrix prune(Matrix w, double sparsity, Matrix mask) {
+		int rows = w.getRows(), cols = w.getColumns();
+		int count = (int) Math.round(sparsity * rows * cols);
+		double[] magnitudes = new double[rows * cols];
+		for(int r = 0; r < rows; r++) {
+			for(int c = 0; c < cols; c++) {
+				magnitudes[r * cols + c] = Math.abs(w.get(r, c));
+			}
+		}
+		double[] sorted = magnitudes.clone();
+		Arrays.sort(sorted);
+		double threshold = count == 0 ? -1 : sorted[count - 1];
+		
+		//all weights below the threshold and as many of those at it as are still missing
+		int ties = count;
+		for(double m : magnitudes) {
+			if(m < threshold)
+				ties--;
+		}
+		if(mask == null)
+			mask = new Matrix(rows, cols, precision);
+		for(int k = 0; k < magnitudes.length; k++) {
+			boolean cut = magnitudes[k] < threshold || (magnitudes[k] == threshold && ties-- > 0);
+			if(cut)
+				w.set(k / cols, k % cols, 0);
+			mask.set(k / cols, k % cols, cut ? 0 : 1);
+		}
+		return mask;
+	}
+	
+	/**
+	 * sets the pruned weights back to zero after an update of the parameters
+	 */
+	private void mask() {
+		Matrix[] masks = this.masks;
+		if(masks == null)
+			return;
+		for(int i = 0; i < masks.length; i++) {
+			Matrix.pro(weights[i], masks[i], weights[i]);
+		}
 	}
 
 	/**
-	 * processes the outputs of this neural network for a single input column vector
+	 * creates the buffers for processing or back-propagating the given amount of samples at once.
+	 * the weighted sums are only kept for the layers whose derivative has no output form,
+	 * so the workspace has to be created after the activation functions are set
+	 */
+	public Workspace workspace(int columns) {
+		return new Workspace(layers, columns, precision, derivative);
+	}
+	
+	/**
+	 * processes the outputs of this neural network for an input matrix
+	 * in which every column is a single sample
 	 */
 	public Matrix process(Matrix mat) {
+		return process(mat, workspace(mat.getColumns()));
+	}
+	
+	/**
+	 * processes the outputs of this neural network within the given workspace,
+	 * the returned matrix belongs to the workspace and is overwritten by its next use
+	 */
+	public Matrix process(Matrix mat, Workspace ws) {
+		return process(mat.to(precision), null, ws);
+	}
+	
+	/**
+	 * processes a batch of sparse inputs within the given workspace, the weights
+	 * of the first layer are only multiplied with the nonzero inputs
+	 */
+	public Matrix process(SparseBatch batch, Workspace ws) {
+		return process(null, batch, ws);
+	}
+	
+	/**
+	 * the forward pass over the dense inputs, or the sparse ones if there are any
+	 */
+	private Matrix process(Matrix mat, SparseBatch sparse, Workspace ws) {
+		if((sparse != null ? sparse.getColumns() : mat.getColumns()) != ws.columns)
+			throw new RuntimeException("Workspace size mismatch");
+		Events.Process event = Events.process();
+		long time = ws.timed ? System.nanoTime() : 0;
+		
 		//for every layer of the network
 		for(int i = 0; i < layers.length - 1; i++) {
-			Matrix tmp = new Matrix(weights[i].getRows(), 1);
-			
-			//the dot product of each neuron and its weight stored in a row matrix
-			Matrix.dot(weights[i], mat, tmp);
-			
-			//adding the bias to all neurons of the current layer
-			Matrix.add(tmp, biases[i], tmp);
-			
-			//applying the activation function to the vectorized matrix
-			mat = Matrix.vec(tmp, null, activation[i]);
+			//the dot product of each neuron and its weight stored in a row per neuron plus
+			//the bias of the neuron, activated in the same pass and kept for back-propagation.
+			//the weighted sums are only kept if the workspace has room for them
+			if(i == 0 && sparse != null)
+				mat = Matrix.dense(weights[i], sparse, biases[i], activation[i], ws.sums[i], ws.activations[i + 1]);
+			else
+				mat = Matrix.dense(weights[i], mat, biases[i], activation[i], ws.sums[i], ws.activations[i + 1]);
+			if(ws.timed)
+				time = lap(ws.metrics.forward, i, time);
+		}
+		
+		if(event != null && event.shouldCommit()) {
+			event.samples = ws.columns;
+			event.layers = shape;
+			event.commit();
 		}
-		//return the result in a column vector
+		//return the result with one column per sample
 		return mat;
 	}
 	
+	/**
+	 * classifies the samples from (inclusive) to (exclusive) of the dataset in batches,
+	 * writing the predicted class of sample i into classes[i - from] and, if scores is
+	 * not null, its outputs into scores from (i - from) * outputs on
+	 */
+	public void classify(Dataset data, int from, int to, int batches, int[] classes, double[] scores) {
+		if(data.features() != layers[0] || data.classes() != layers[layers.length - 1])
+			throw new RuntimeException("Dataset size mismatch");
+		
+		boolean sparse = sparse(data);
+		Workspace ws = workspace(Math.min(batches, to - from));
+		for(int i = from; i < to; i += batches) {
+			int end = Math.min(i + batches, to);
+			
+			//the last batch might be smaller than the others
+			if(end - i != ws.columns)
+				ws = workspace(end - i);
+			if(sparse) {
+				data.gather(null, i, end, ws.sparse(), null);
+				predict(process(ws.sparse(), ws), classes, i - from, scores);
+			} else {
+				data.gather(null, i, end, ws.input(), null);
+				classify(ws.input(), ws, classes, i - from, scores);
+			}
+		}
+	}
+	
+	/**
+	 * classifies every column of the batch within the given workspace, writing the predicted
+	 * classes into classes and, if scores is not null, the outputs of every sample into scores
+	 * (one sample after another) from the given sample offset on
+	 */
+	public void classify(Matrix batch, Workspace ws, int[] classes, int off, double[] scores) {
+		predict(process(batch, ws), classes, off, scores);
+	}
+	
+	/**
+	 * writes the predicted classes and the scores of the outputs of a batch
+	 */
+	private static void predict(Matrix out, int[] classes, int off, double[] scores) {
+		Matrix.maxColumns(out, classes, off);
+		
+		if(scores != null) {
+			int outputs = out.getRows();
+			for(int j = 0; j < out.getColumns(); j++) {
+				for(int k = 0; k < outputs; k++) {
+					scores[(off + j) * outputs + k] = out.get(k, j);
+				}
+			}
+		}
+	}
+	
 	/**
 	 * back-propagation is the part of the gradient descent algorithm
-	 * that calculates the changes that need to be made to the weights and biases
+	 * that calculates the changes that need to be made to the weights and biases.
+	 * every column of data (and res) is one sample so that a whole batch runs as
+	 * one matrix product per layer, the returned gradients are summed over the batch
 	 */
 	public Matrix[][] backpropagate(Matrix data, Matrix res) {
-		Matrix[] deltaGradientWeights = new Matrix[layers.length - 1];
-		Matrix[] deltaGradientBiases = new Matrix[layers.length - 1];
-		Matrix[] weightedSums = new Matrix[layers.length - 1];
-		Matrix[] activations = new Matrix[layers.length];
+		return backpropagate(data, res, workspace(data.getColumns()));
+	}
 	
-		Matrix tmp, last = data;
+	/**
+	 * back-propagates within the given workspace without allocating anything,
+	 * the returned gradients belong to the workspace and are overwritten by its next use
+	 */
+	public Matrix[][] backpropagate(Matrix data, Matrix res, Workspace ws) {
+		return backpropagate(data.to(precision), null, res, ws);
+	}
+	
+	/**
+	 * back-propagates a batch of sparse inputs within the given workspace, the first layer
+	 * only multiplies its weights with the nonzero inputs and only adds up the gradients
+	 * of the weights of the nonzero inputs
+	 */
+	public Matrix[][] backpropagate(SparseBatch data, Matrix res, Workspace ws) {
+		return backpropagate(null, data, res, ws);
+	}
 	
-		activations[0] = last;
+	/**
+	 * back-propagates the batch the dataset was gathered into the workspace with
+	 */
+	private Matrix[][] backpropagate(Dataset data, Workspace ws) {
+		if(sparse(data))
+			return backpropagate(null, ws.sparse(), ws.target(), ws);
+		return backpropagate(ws.input(), null, ws.target(), ws);
+	}
 	
+	/**
+	 * back-propagates the dense inputs, or the sparse ones if there are any
+	 */
+	private Matrix[][] backpropagate(Matrix first, SparseBatch sparse, Matrix res, Workspace ws) {
+		trainable();
 		for(int i = 0; i < layers.length - 1; i++) {
-			tmp = Matrix.dot(weights[i], last, null);
-	
-			Matrix.add(tmp, biases[i], tmp);
-			weightedSums[i] = tmp;
-			last = Matrix.vec(tmp, null, activation[i]);
-			activations[i + 1] = last;
+			if(ws.sums[i] == null && !derivative[i].outputForm())
+				throw new RuntimeException("Workspace was created for other derivatives");
 		}
-		Matrix err = cost.d(activations[layers.length - 1], res, weightedSums[layers.length - 2], derivative[layers.length - 2]);
-		deltaGradientBiases[layers.length - 2] = err;
-		deltaGradientWeights[layers.length - 2] = err.multiplyTransposeM(activations[layers.length - 2]);
+		Events.Backpropagate event = Events.backpropagate();
+		Matrix last = process(first, sparse, ws);
+		long time = ws.timed ? System.nanoTime() : 0;
+		
+		Matrix err = cost.d(last, res.to(precision), ws.sums[layers.length - 2], derivative[layers.length - 2], ws.errors[layers.length - 2]);
+		Matrix.sumColumns(err, ws.gradients[1][layers.length - 2]);
+		gradient(err, layers.length - 2, first, sparse, ws);
+		if(ws.timed)
+			time = lap(ws.metrics.backward, layers.length - 2, time);
 	
 		for(int i = layers.length - 3; i >= 0; i--) {
-			tmp = Matrix.vec(weightedSums[i], null, derivative[i]);
-			err = weights[i + 1].multiplyTransposeSelf(err);
-			Matrix.pro(err, tmp, err);
-			deltaGradientBiases[i] = err;
-			deltaGradientWeights[i] = err.multiplyTransposeM(activations[i]);
+			//the error passed back through the weights and the derivative in one pass
+			//calculated from the activations of the layer if the derivative can be
+			if(derivative[i].outputForm())
+				err = Matrix.denseBackwardOut(weights[i + 1], err, ws.activations[i + 1], derivative[i], ws.errors[i]);
+			else
+				err = Matrix.denseBackward(weights[i + 1], err, ws.sums[i], derivative[i], ws.errors[i]);
+			Matrix.sumColumns(err, ws.gradients[1][i]);
+			gradient(err, i, first, sparse, ws);
+			if(ws.timed)
+				time = lap(ws.metrics.backward, i, time);
 		}
-		return new Matrix[][] {deltaGradientWeights, deltaGradientBiases};
+		
+		if(event != null && event.shouldCommit()) {
+			event.samples = ws.columns;
+			event.layers = shape;
+			event.commit();
+		}
+		return ws.gradients;
+	}
+	
+	/**
+	 * the gradient of the weights of the given layer from its error and its inputs,
+	 * which are the sparse inputs of the batch for the first layer if there are any
+	 */
+	private static void gradient(Matrix err, int i, Matrix first, SparseBatch sparse, Workspace ws) {
+		if(i == 0 && sparse != null)
+			Matrix.multiplyTransposeB(err, sparse, ws.gradients[0][0]);
+		else
+			Matrix.multiplyTransposeB(err, i == 0 ? first : ws.activations[i], ws.gradients[0][i]);
+	}
+	
+	/**
+	 * adds the time since the given start to times[i] and returns the current time
+	 */
+	private static long lap(long[] times, int i, long start) {
+		long now = System.nanoTime();
+		times[i] += now - start;
+		return now;
 	}
 
 	/**
 	 * trains the neural network by using the gradient descent algorithm
 	 */
 	public float train(Matrix[] data, Matrix[] res, int epochs, int batches, float learningrate) {
+		return train(Dataset.of(data, res), epochs, batches, learningrate);
+	}
+	
+	/**
+	 * trains the neural network by using the gradient descent algorithm.
+	 * without a pool the batches are gathered from the dataset on a background
+	 * thread while the previous batch is trained on, with a pool every worker
+	 * gathers its own part of the batch
+	 */
+	public float train(Dataset data, int epochs, int batches, float learningrate) {
+		return train(data, order(data, data.size()), epochs, batches, learningrate, null);
+	}
+	
+	/**
+	 * trains on all but the last holdout samples of the dataset until the accuracy on the
+	 * held-out samples reaches the target or has not improved for patience epochs, but for
+	 * at most the given amount of epochs. every epoch ends with a snapshot of the parameters,
+	 * which is validated on a background thread while the next epoch already trains, and
+	 * the training stops as soon as a validation says so, even within an epoch.
+	 * the network ends up with the parameters of the best snapshot, which is also
+	 * the one saved as checkpoint (instead of one after every epoch)
+	 */
+	public float trainUntil(Dataset data, int holdout, int epochs, int batches, float learningrate, double target, int patience) {
+		if(holdout <= 0 || holdout >= data.size())
+			throw new RuntimeException("The holdout must leave samples to train on");
+		
+		int[] order = order(data, data.size() - holdout);
+		try(Validator validator = new Validator(this, data, data.size() - holdout, data.size(), target, patience, checkpoint)) {
+			float total = train(data, order, epochs, batches, learningrate, validator);
+			validator.finish();
+			return total;
+		}
+	}
+	
+	/**
+	 * trains on the samples of the given order, checking with the validator
+	 * after every batch and every epoch whether to stop if there is one
+	 */
+	private float train(Dataset data, int[] order, int epochs, int batches, float learningrate, Validator validator) {
 		float total = 0;
+		boolean stop = false;
+		Matrix[][] parameters = parameters();
+		boolean timed = !listeners.isEmpty();
+		//the metrics are only kept while there are listeners
+		Metrics epoch = timed ? new Metrics(layers.length - 1) : null, batch = timed ? new Metrics(layers.length - 1) : null;
+		
+		//the workers of a pool gather their own parts of the batches, so only the
+		//training on this thread is fed by a prefetcher
+		try(Prefetcher prefetcher = pool == null ? new Prefetcher(data, batches, precision, sparse(data)) : null) {
+			//trains on all data (from the parameter) multiple times
+			for(int e = 0; e < epochs && !stop; e++) {
+				long time = System.nanoTime();
+				long collections = timed ? Metrics.collections() : 0;
+				int samples = 0;
+				if(timed)
+					epoch.clear();
+				Events.Epoch recorded = new Events.Epoch();
+				recorded.begin();
+				
+				//the data are getting shuffled so that the learning process
+				//can easily escape local minima
+				MNIST.shuffle(order);
+				reserve(batches);
+				double rate = schedule.rate(learningrate, e);
+				if(pool == null)
+					prefetcher.start(order);
+				
+				//for every batch from the input data
+				for(int i = 0; i < order.length && !stop; i += batches) {
+					int end = Math.min(i + batches, order.length);
+					long start = timed ? System.nanoTime() : 0, bytes = timed ? Metrics.allocated() : 0, invoked = 0;
+					long gc = timed ? Metrics.collections() : 0;
+					Events.Batch event = Events.batch();
+					
+					Matrix[][] deltaGradients;
+					
+					if(pool != null) {
+						//every worker calculates the changes of its own part of the batch
+						int leaf = Math.max(GRAIN, (end - i + pool.getParallelism() - 1) / pool.getParallelism());
+						//the workers count their own allocations, even if this thread helps out
+						long before = timed ? Metrics.allocated() : 0;
+						deltaGradients = pool.invoke(new Gradients(data, order, i, end, leaf, i));
+						invoked = timed ? Metrics.allocated() - before : 0;
+					} else {
+						//calculates the changes of the whole batch with back-propagation
+						Prefetcher.Batch gathered = prefetcher.next();
+						if(gathered.getSparseInput() != null)
+							deltaGradients = backpropagate(gathered.getSparseInput(), gathered.getOutput(), slot(0, end - i));
+						else
+							deltaGradients = backpropagate(gathered.getInput(), gathered.getOutput(), slot(0, end - i));
+					}
+					long update = timed ? System.nanoTime() : 0;
+				
+					//applies the changes of every layer with the learning rate of this epoch
+					optimizer.update(parameters, deltaGradients, rate);
+					mask();
+					samples = end;
+					
+					if(event != null && event.shouldCommit()) {
+						event.epoch = e;
+						event.batch = i / batches;
+						event.samples = end - i;
+						event.layers = shape;
+						event.commit();
+					}
+					
+					if(timed) {
+						long now = System.nanoTime();
+						batch.clear();
+						batch.epoch = e;
+						batch.batch = i / batches;
+						batch.samples = end - i;
+						batch.nanos = now - start;
+						batch.update = now - update;
+						batch.allocated = Metrics.allocated() - bytes - invoked;
+						batch.collections = Metrics.collections() - gc;
+						collect(batch);
+						epoch.add(batch);
+						for(TrainingListener listener : listeners) {
+							listener.batch(batch);
+						}
+					}
+					
+					//the validation of an earlier epoch may have finished in the meantime
+					stop = validator != null && validator.poll();
+				}
+				float seconds = (float) ((System.nanoTime() - time) / 1.0E9);
+				total += seconds;
+				System.out.println("Epoch: " + (e + 1) + "/" + epochs + " Time: " + seconds + "sec Throughput: " + (int) (samples / seconds) + " samples/sec"); 
+				commit(recorded, e, samples, batches, rate, 0);
+				
+				if(timed) {
+					epoch.epoch = e;
+					epoch.batch = -1;
+					epoch.nanos = System.nanoTime() - time;
+					epoch.collections = Metrics.collections() - collections;
+					for(TrainingListener listener : listeners) {
+						listener.epoch(epoch);
+					}
+				}
+				
+				if(validator != null)
+					stop = stop || validator.submit(e);
+				else if(checkpoint != null)
+					Checkpoint.save(this, checkpoint);
+			}
+		}
+		return total;
+	}
+	
+	/**
+	 * trains the neural network asynchronously (hogwild): every thread works through
+	 * its own slice of the shuffled data and applies the changes of each of its batches
+	 * straight to the shared weights and biases without any locking or waiting for the
+	 * other threads, so updates may overlap and occasionally overwrite each other.
+	 * the changes are calculated on slightly outdated weights, which usually
+	 * calls for a smaller learning rate than the synchronous train.
+	 *
+	 * only plain gradient descent is supported: its steps only read the gradients of their own
+	 * batch, while the momentum, rmsprop and adam would share their state and step count between
+	 * all threads and tear it apart. training with any other optimizer throws a RuntimeException
+	 */
+	public float trainAsync(Matrix[] data, Matrix[] res, int epochs, int batches, float learningrate, int threads) {
+		return trainAsync(Dataset.of(data, res), epochs, batches, learningrate, threads);
+	}
+	
+	/**
+	 * trains the neural network asynchronously on the given dataset
+	 */
+	public float trainAsync(Dataset data, int epochs, int batches, float learningrate, int threads) {
+		if(!optimizer.isStateless())
+			throw new RuntimeException("Asynchronous training only supports plain gradient descent, not " + optimizer);
+		
+		int[] order = order(data, data.size());
+		float total = 0;
+		Matrix[][] parameters = parameters();
+		boolean timed = !listeners.isEmpty();
+		Metrics epoch = timed ? new Metrics(layers.length - 1) : null;
 		//trains on all data (from the parameter) multiple times
 		for(int e = 0; e < epochs; e++) {
 			long time = System.nanoTime();
+			long collections = timed ? Metrics.collections() : 0;
+			Events.Epoch recorded = new Events.Epoch();
+			recorded.begin();
 			
-			//the data are getting shuffled so that the learning process
-			//can easily escape local minima
-			MNIST.shuffle(data, res);
+			MNIST.shuffle(order);
+			reserve(threads);
+			double rate = schedule.rate(learningrate, e);
 			
-			//stores the changes per batch made to the weights and biases
-			Matrix[] gradientBiases = new Matrix[layers.length - 1];
-			Matrix[] gradientWeights = new Matrix[layers.length - 1];
-			
-			//initializes all the elements to empty matrices
-			for(int i = 0; i < layers.length - 1; i++) {
-				gradientBiases[i] = new Matrix(biases[i].getRows(), biases[i].getColumns());
-				gradientWeights[i] = new Matrix(weights[i].getRows(), weights[i].getColumns());
-			}
-			
-			//for every data from the input array
-			for(int i = 0; i < data.length; i++) {
-				
+			Thread[] workers = new Thread[threads];
+			for(int t = 0; t < threads; t++) {
+				int slot = t;
+				int from = (int) ((long) order.length * t / threads);
+				int to = (int) ((long) order.length * (t + 1) / threads);
 				
-				//calculates the changes with back-propagation
-				Matrix[][] deltaGradients = backpropagate(data[i], res[i]);
-				
-				//stores the the changes so they can be applied to
-				//the weights and biases after the current batch
-				for(int j = 0; j < layers.length - 1; j++) {
-					Matrix.add(gradientWeights[j], deltaGradients[0][j], gradientWeights[j]);
-					Matrix.add(gradientBiases[j], deltaGradients[1][j], gradientBiases[j]);
-				}
-				
-				//if a batch is complete or the end of the input data is reached
-				if(i > 0 && i % batches == 0 || i == data.length - 1) {
-					//for every layer of neurons
-					for(int j = 0; j < layers.length - 1; j++) {
+				workers[t] = new Thread(() -> {
+					//for every batch from the slice of this thread
+					for(int i = from; i < to; i += batches) {
+						int end = Math.min(i + batches, to);
+						long bytes = timed ? Metrics.allocated() : 0, gc = timed ? Metrics.collections() : 0;
+						Workspace ws = gather(data, order, i, end, slot);
+						Matrix[][] deltaGradients = backpropagate(data, ws);
+						long update = timed ? System.nanoTime() : 0;
 						
-						//scales the changes with the learning rate
-						Matrix.scl(gradientWeights[j], gradientWeights[j], learningrate);
-						Matrix.scl(gradientBiases[j], gradientBiases[j], learningrate);
-						//applies the changes by subtracting a fraction of the difference
-						//of the current stats and the estimated stats
-						Matrix.sub(weights[j], gradientWeights[j], weights[j]);
-						Matrix.sub(biases[j], gradientBiases[j], biases[j]);
-						
-						//clears the storage for the upcoming batch
-						gradientBiases[j].clear();
-						gradientWeights[j].clear();
+						//applies the changes without waiting for the other threads
+						optimizer.update(parameters, deltaGradients, rate);
+						mask();
+						if(timed && ws.timed) {
+							ws.metrics.update += System.nanoTime() - update;
+							ws.metrics.allocated += Metrics.allocated() - bytes;
+							ws.metrics.collections += Metrics.collections() - gc;
+						}
 					}
+				}, "hogwild-" + t);
+				workers[t].start();
+			}
+			
+			//waits for the end of the epoch so that all the changes are visible
+			for(Thread worker : workers) {
+				try {
+					worker.join();
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException(ex);
+				}
+			}
+			
+			float seconds = (float) ((System.nanoTime() - time) / 1.0E9);
+			total += seconds;
+			System.out.println("Epoch: " + (e + 1) + "/" + epochs + " Time: " + seconds + "sec Throughput: " + (int) (order.length / seconds) + " samples/sec"); 
+			commit(recorded, e, order.length, batches, rate, threads);
+			
+			//the workers are done, so their metrics can be collected
+			if(timed) {
+				epoch.clear();
+				collect(epoch);
+				epoch.epoch = e;
+				epoch.batch = -1;
+				epoch.samples = order.length;
+				epoch.nanos = System.nanoTime() - time;
+				epoch.collections = Metrics.collections() - collections;
+				for(TrainingListener listener : listeners) {
+					listener.epoch(epoch);
 				}
 			}
-			total += (float) ((System.nanoTime() - time) / 1.0E9);
-			System.out.println("Epoch: " + (e + 1) + "/" + epochs + " Time: " + (float) ((System.nanoTime() - time) / 1.0E9) + "sec"); 
+			
+			//all workers have finished, so the parameters are consistent
+			if(checkpoint != null)
+				Checkpoint.save(this, checkpoint);
 		}
 		return total;
 	}
 	
+	/**
+	 * the weights and biases sorted like the gradients of back-propagation,
+	 * with the state of the optimizer prepared for them
+	 */
+	private Matrix[][] parameters() {
+		trainable();
+		Matrix[][] parameters = {weights, biases};
+		optimizer.prepare(parameters);
+		return parameters;
+	}
+	
+	/**
+	 * writes the event of an epoch if it is recorded
+	 */
+	private void commit(Events.Epoch event, int epoch, int samples, int batches, double rate, int threads) {
+		if(event.shouldCommit()) {
+			event.epoch = epoch;
+			event.layers = shape;
+			event.samples = samples;
+			event.batches = batches;
+			event.rate = rate;
+			event.threads = threads;
+			event.commit();
+		}
+	}
+	
+	/**
+	 * adds up the metrics of all workspaces into the given metrics and clears them
+	 */
+	private void collect(Metrics metrics) {
+		for(Workspace ws : workspaces) {
+			if(ws != null && ws.metrics != null) {
+				metrics.add(ws.metrics);
+				ws.metrics.clear();
+			}
+		}
+	}
+	
+	/**
+	 * makes room for the workspaces of the given amount of slots
+	 */
+	private void reserve(int slots) {
+		if(workspaces.length < 2 * slots)
+			workspaces = Arrays.copyOf(workspaces, 2 * slots);
+	}
+	
+	/**
+	 * the indices of the first samples of the dataset, shuffled before every epoch
+	 */
+	private int[] order(Dataset data, int samples) {
+		if(data.features() != layers[0] || data.classes() != layers[layers.length - 1])
+			throw new RuntimeException("Dataset size mismatch");
+		
+		int[] order = new int[samples];
+		for(int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		return order;
+	}
+	
+	/**
+	 * the workspace of the given slot for the given amount of samples, which is
+	 * only ever used by one thread at a time and only allocated on its first use
+	 */
+	private Workspace slot(int slot, int columns) {
+		Workspace ws = workspaces[2 * slot];
+		if(ws == null || ws.columns != columns) {
+			ws = workspaces[2 * slot + 1];
+			if(ws == null || ws.columns != columns) {
+				ws = workspace(columns);
+				workspaces[workspaces[2 * slot] == null ? 2 * slot : 2 * slot + 1] = ws;
+			}
+		}
+		ws.timed = !listeners.isEmpty();
+		if(ws.timed && ws.metrics == null)
+			ws.metrics = new Metrics(layers.length - 1);
+		return ws;
+	}
+	
+	/**
+	 * gathers the samples order[from] to order[to - 1] into the workspace of the given slot
+	 */
+	private Workspace gather(Dataset data, int[] order, int from, int to, int slot) {
+		Workspace ws = slot(slot, to - from);
+		if(sparse(data))
+			data.gather(order, from, to, ws.sparse(), ws.target());
+		else
+			data.gather(order, from, to, ws.input(), ws.target());
+		return ws;
+	}
+	
+	/**
+	 * whether the inputs of the dataset are gathered as sparse batches
+	 */
+	private boolean sparse(Dataset data) {
+		return sparse && data.sparse() && !weights[0].isOffHeap();
+	}
+	
+	/**
+	 * fails if the parameters are off the heap (see Checkpoint.share), where they are only read
+	 */
+	private void trainable() {
+		for(int i = 0; i < layers.length - 1; i++) {
+			if(weights[i].isOffHeap() || biases[i].isOffHeap())
+				throw new RuntimeException("Off-heap parameters can only be used for inference");
+		}
+	}
+	
+	/**
+	 * calculates the summed changes of the samples from (inclusive) to (exclusive)
+	 * by splitting them in halves until a part holds at most leaf samples.
+	 * the halves are always added in the same order, so the result only depends
+	 * on the batch and the leaf size but not on the scheduling of the workers
+	 */
+	private class Gradients extends RecursiveTask<Matrix[][]> {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final Dataset data;
+		private final int[] order;
+		private final int from, to, leaf, start;
+		
+		Gradients(Dataset data, int[] order, int from, int to, int leaf, int start) {
+			this.data = data;
+			this.order = order;
+			this.from = from;
+			this.to = to;
+			this.leaf = leaf;
+			this.start = start;
+		}
+		
+		@Override
+		protected Matrix[][] compute() {
+			if(to - from <= leaf) {
+				//every part has its own workspace, found by its offset in the batch
+				long bytes = listeners.isEmpty() ? 0 : Metrics.allocated();
+				Workspace ws = gather(data, order, from, to, from - start);
+				Matrix[][] gradients = backpropagate(data, ws);
+				if(ws.timed)
+					ws.metrics.allocated += Metrics.allocated() - bytes;
+				return gradients;
+			}
+			int mid = (from + to) >>> 1;
+			Gradients right = new Gradients(data, order, mid, to, leaf, start);
+			right.fork();
+			Matrix[][] left = new Gradients(data, order, from, mid, leaf, start).compute();
+			Matrix[][] other = right.join();
+			
+			//adds the changes of the right half onto the ones of the left half
+			for(int j = 0; j < layers.length - 1; j++) {
+				Matrix.add(left[0][j], other[0][j], left[0][j]);
+				Matrix.add(left[1][j], other[1][j], left[1][j]);
+			}
+			return left;
+		}
+	}
+	
 }
@@ -0,0 +1,306 @@
+package net;
+
+import utils.Matrix;
+import utils.Precision;
+
+/**
+ * the rule that applies the gradients of a batch to the weights and biases. every optimizer
+ * keeps its state (like the momentum) in buffers shaped like the parameters, which are
+ * allocated once by prepare and then updated in place together with the parameters,
+ * so that a step does not allocate anything.
+ *
+ * the gradients are the sums over the batch, just like the ones back-propagation returns
+ */
+public abstract class Optimizer {
+	
+	/**
+	 * the amount of buffers every parameter has
+	 */
+	private final int buffers;
+	
+	/**
+	 * the buffers of every parameter, sorted like the parameters
+	 */
+	private Matrix[][][] state;
+	
+	/**
+	 * the amount of steps taken since the state was prepared
+	 */
+	private long step;
+	
+	Optimizer(int buffers) {
+		this.buffers = buffers;
+	}
+	
+	/**
+	 * plain gradient descent: p -= rate * g
+	 */
+	public static Optimizer sgd() {
+		return new Optimizer(0) {
+			
+			void update(double[] p, double[] g, Matrix[] s, long t, double rate) {
+				for(int i = 0; i < p.length; i++) {
+					p[i] -= rate * g[i];
+				}
+			}
+			
+			void update(float[] p, float[] g, Matrix[] s, long t, double rate) {
+				float r = (float) rate;
+				for(int i = 0; i < p.length; i++) {
+					p[i] -= r * g[i];
+				}
+			}
+			
+			public String toString() {
+				return "SGD";
+			}
+		};
+	}
+	
+	/**
+	 * gradient descent with momentum: v = beta * v + g, p -= rate * v
+	 */
+	public static Optimizer momentum(double beta) {
+		return new Momentum(beta, false);
+	}
+	
+	/**
+	 * gradient descent with nesterov momentum, which steps along the momentum
+	 * it is about to have: v = beta * v + g, p -= rate * (g + beta * v)
+	 */
+	public static Optimizer nesterov(double beta) {
+		return new Momentum(beta, true);
+	}
+	
+	/**
+	 * rmsprop with a decay of 0.9
+	 */
+	public static Optimizer rmsprop() {
+		return rmsprop(0.9, 1e-8);
+	}
+	
+	/**
+	 * divides every gradient by the root of the moving average of its squares:
+	 * s = decay * s + (1 - decay) * g^2, p -= rate * g / (sqrt(s) + epsilon)
+	 */
+	public static Optimizer rmsprop(double decay, double epsilon) {
+		return new RMSProp(decay, epsilon);
+	}
+	
+	/**
+	 * adam with the usual betas of 0.9 and 0.999
+	 */
+	public static Optimizer adam() {
+		return adam(0.9, 0.999, 1e-8);
+	}
+	
+	/**
+	 * adam, which is rmsprop on the moving average of the gradients with both averages
+	 * corrected for their start at zero
+	 */
+	public static Optimizer adam(double beta1, double beta2, double epsilon) {
+		return new Adam(beta1, beta2, epsilon);
+	}
+	
+	/**
+	 * allocates the state for the given parameters, unless the state already fits them.
+	 * the state is kept across epochs and calls to train, and only starts over once
+	 * it is reset or prepared for parameters of other sizes
+	 */
+	public void prepare(Matrix[][] parameters) {
+		if(fits(parameters))
+			return;
+		
+		state = new Matrix[parameters.length][][];
+		for(int i = 0; i < parameters.length; i++) {
+			state[i] = new Matrix[parameters[i].length][buffers];
+			for(int j = 0; j < parameters[i].length; j++) {
+				for(int k = 0; k < buffers; k++) {
+					state[i][j][k] = new Matrix(parameters[i][j].getRows(), parameters[i][j].getColumns(), parameters[i][j].getPrecision());
+				}
+			}
+		}
+		step = 0;
+	}
+	
+	/**
+	 * clears the state, so that the next step starts without any history
+	 */
+	public void reset() {
+		if(state != null) {
+			for(Matrix[][] group : state) {
+				for(Matrix[] buffer : group) {
+					for(Matrix m : buffer) {
+						m.clear();
+					}
+				}
+			}
+		}
+		step = 0;
+	}
+	
+	/**
+	 * applies one step with the given learning rate to all parameters, overwriting them in place.
+	 * the parameters and gradients are sorted the same way (like {weights, biases}) and the state
+	 * has to be prepared for the parameters. not thread-safe, only an optimizer without
+	 * any state may be used by several threads at once (like while training asynchronously)
+	 */
+	public void update(Matrix[][] parameters, Matrix[][] gradients, double rate) {
+		if(!fits(parameters))
+			throw new RuntimeException("The optimizer was not prepared for these parameters");
+		
+		long t = ++step;
+		for(int i = 0; i < parameters.length; i++) {
+			for(int j = 0; j < parameters[i].length; j++) {
+				Matrix p = parameters[i][j], g = gradients[i][j];
+				if(p.getRows() != g.getRows() || p.getColumns() != g.getColumns() || p.getPrecision() != g.getPrecision())
+					throw new RuntimeException("Matrix size mismatch");
+				
+				if(p.getPrecision() == Precision.SINGLE)
+					update(p.getFloats(), g.getFloats(), state[i][j], t, rate);
+				else
+					update(p.getValues(), g.getValues(), state[i][j], t, rate);
+			}
+		}
+	}
+	
+	/**
+	 * whether the optimizer keeps no state between its steps, so that several threads
+	 * can apply their steps to the same parameters at once
+	 */
+	boolean isStateless() {
+		return buffers == 0;
+	}
+	
+	/**
+	 * whether the state has the same shape and precision as the parameters
+	 */
+	private boolean fits(Matrix[][] parameters) {
+		if(state == null || state.length != parameters.length)
+			return false;
+		for(int i = 0; i < parameters.length; i++) {
+			if(state[i].length != parameters[i].length)
+				return false;
+			for(int j = 0; j < parameters[i].length; j++) {
+				Matrix p = parameters[i][j];
+				for(Matrix s : state[i][j]) {
+					if(s.getRows() != p.getRows() || s.getColumns() != p.getColumns() || s.getPrecision() != p.getPrecision())
+						return false;
+				}
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * updates the parameter p with its gradient g and its state buffers s in step t (starting at 1)
+	 */
+	abstract void update(double[] p, double[] g, Matrix[] s, long t, double rate);
+	abstract void update(float[] p, float[] g, Matrix[] s, long t, double rate);
+	
+	private static class Momentum extends Optimizer {
+		
+		private final double beta;
+		private final boolean nesterov;
+		
+		Momentum(double beta, boolean nesterov) {
+			super(1);
+			this.beta = beta;
+			this.nesterov = nesterov;
+		}
+		
+		void update(double[] p, double[] g, Matrix[] s, long t, double rate) {
+			double[] v = s[0].getValues();
+			for(int i = 0; i < p.length; i++) {
+				v[i] = beta * v[i] + g[i];
+				p[i] -= rate * (nesterov ? g[i] + beta * v[i] : v[i]);
+			}
+		}
+		
+		void update(float[] p, float[] g, Matrix[] s, long t, double rate) {
+			float[] v = s[0].getFloats();
+			float b = (float) beta, r = (float) rate;
+			for(int i = 0; i < p.length; i++) {
+				v[i] = b * v[i] + g[i];
+				p[i] -= r * (nesterov ? g[i] + b * v[i] : v[i]);
+			}
+		}
+		
+		public String toString() {
+			return (nesterov ? "Nesterov" : "Momentum") + " (beta " + beta + ")";
+		}
+	}
+	
+	private static class RMSProp extends Optimizer {
+		
+		private final double decay, epsilon;
+		
+		RMSProp(double decay, double epsilon) {
+			super(1);
+			this.decay = decay;
+			this.epsilon = epsilon;
+		}
+		
+		void update(double[] p, double[] g, Matrix[] s, long t, double rate) {
+			double[] m = s[0].getValues();
+			for(int i = 0; i < p.length; i++) {
+				m[i] = decay * m[i] + (1 - decay) * g[i] * g[i];
+				p[i] -= rate * g[i] / (Math.sqrt(m[i]) + epsilon);
+			}
+		}
+		
+		void update(float[] p, float[] g, Matrix[] s, long t, double rate) {
+			float[] m = s[0].getFloats();
+			float d = (float) decay, e = (float) epsilon, r = (float) rate;
+			for(int i = 0; i < p.length; i++) {
+				m[i] = d * m[i] + (1 - d) * g[i] * g[i];
+				p[i] -= r * g[i] / ((float) Math.sqrt(m[i]) + e);
+			}
+		}
+		
+		public String toString() {
+			return "RMSProp (decay " + decay + ")";
+		}
+	}
+	
+	private static class Adam extends Optimizer {
+		
+		private final double beta1, beta2, epsilon;
+		
+		Adam(double beta1, double beta2, double epsilon) {
+			super(2);
+			this.beta1 = beta1;
+			this.beta2 = beta2;
+			this.epsilon = epsilon;
+		}
+		
+		void update(double[] p, double[] g, Matrix[] s, long t, double rate) {
+			double[] m = s[0].getValues(), v = s[1].getValues();
+			//the corrections of both averages folded into the rate and epsilon once per step
+			double c = Math.sqrt(1 - Math.pow(beta2, t));
+			double r = rate * c / (1 - Math.pow(beta1, t)), e = epsilon * c;
+			for(int i = 0; i < p.length; i++) {
+				m[i] = beta1 * m[i] + (1 - beta1) * g[i];
+				v[i] = beta2 * v[i] + (1 - beta2) * g[i] * g[i];
+				p[i] -= r * m[i] / (Math.sqrt(v[i]) + e);
+			}
+		}
+		
+		void update(float[] p, float[] g, Matrix[] s, long t, double rate) {
+			float[] m = s[0].getFloats(), v = s[1].getFloats();
+			double c = Math.sqrt(1 - Math.pow(beta2, t));
+			float r = (float) (rate * c / (1 - Math.pow(beta1, t))), e = (float) (epsilon * c);
+			float b1 = (float) beta1, b2 = (float) beta2;
+			for(int i = 0; i < p.length; i++) {
+				m[i] = b1 * m[i] + (1 - b1) * g[i];
+				v[i] = b2 * v[i] + (1 - b2) * g[i] * g[i];
+				p[i] -= r * m[i] / ((float) Math.sqrt(v[i]) + e);
+			}
+		}
+		
+		public String toString() {
+			return "Adam (beta1 " + beta1 + ", beta2 " + beta2 + ")";
+		}
+	}
+
+}
@@ -0,0 +1,256 @@
+package net;
+
+import utils.Activation;
+import utils.Dataset;
+import utils.Matrix;
+import utils.Precision;
+
+/**
+ * an inference-only copy of a trained network with 8 bit integer weights. every row of
+ * weights (the weights of one neuron) is scaled by its own factor so that its largest
+ * weight becomes 127, and every column of inputs (one sample) is quantized the same way
+ * right before each layer. the dot products are calculated with 32 bit integer sums,
+ * which can not overflow for fewer than 2^31 / 127^2 = 133143 inputs per neuron, and
+ * only then scaled back, added to the bias and activated in floating point.
+ *
+ * the JIT only vectorizes sums of products of int arrays, not of byte arrays, so the
+ * weights stay bytes at rest and each row is widened into an int array right before
+ * its dot products with all samples of the batch. the quantized inputs are stored one
+ * sample after another, so that every dot product runs over two contiguous arrays
+ */
+public class QuantizedNetwork implements Classifier {
+
+	/**
+	 * the largest magnitude of a quantized value
+	 */
+	private static final int LEVELS = 127;
+
+	private final int[] layers;
+	private final Activation[] activation;
+
+	/**
+	 * the quantized weights of every layer row by row, and the factor of every row
+	 */
+	private final byte[][] weights;
+	private final float[][] scales;
+
+	/**
+	 * the biases of every layer, which are added after scaling back and stay in floating point
+	 */
+	private final float[][] biases;
+
+	private QuantizedNetwork(int[] layers, Activation[] activation) {
+		this.layers = layers;
+		this.activation = activation;
+		this.weights = new byte[layers.length - 1][];
+		this.scales = new float[layers.length - 1][];
+		this.biases = new float[layers.length - 1][];
+	}
+
+	/**
+	 * quantizes the weights and biases of the given network as they are right now
+	 */
+	public static QuantizedNetwork quantize(NeuralNetwork network) {
+		int[] layers = network.getLayers();
+		QuantizedNetwork q = new QuantizedNetwork(layers, network.getActivation().clone());
+
+		for(int l = 0; l < layers.length - 1; l++) {
+			Matrix w = network.getWeights()[l], b = network.getBiases()[l];
+			int rows = layers[l + 1], cols = layers[l];
+			q.weights[l] = new byte[rows * cols];
+			q.scales[l] = new float[rows];
+			q.biases[l] = new float[rows];
+
+			for(int r = 0; r < rows; r++) {
+				double max = 0;
+				for(int k = 0; k < cols; k++) {
+					max = Math.max(max, Math.abs(w.get(r, k)));
+				}
+				//a row of zeros keeps a factor of zero and quantizes to zeros
+				double inv = max == 0 ? 0 : LEVELS / max;
+				for(int k = 0; k < cols; k++) {
+					q.weights[l][r * cols + k] = (byte) Math.round(w.get(r, k) * inv);
+				}
+				q.scales[l][r] = (float) (max / LEVELS);
+				q.biases[l][r] = (float) b.get(r, 0);
+			}
+		}
+		return q;
+	}
+
+	/**
+	 * the amount of neurons on every layer
+	 */
+	public int[] getLayers() {
+		return layers.clone();
+	}
+
+	/**
+	 * the amount of bytes of the quantized weights, factors and biases
+	 */
+	public long getBytes() {
+		long bytes = 0;
+		for(int l = 0; l < weights.length; l++) {
+			bytes += weights[l].length + (long) Float.BYTES * (scales[l].length + biases[l].length);
+		}
+		return bytes;
+	}
+
+	/**
+	 * processes the outputs for an input matrix in which every column is a single sample
+	 */
+	public Matrix process(Matrix mat) {
+		Buffers buf = new Buffers(mat.getColumns());
+		float[] in = mat.to(Precision.SINGLE).getFloats();
+		return new Matrix(process(in, buf).clone(), layers[layers.length - 1], mat.getColumns());
+	}
+
+	@Override
+	public void classify(Dataset data, int from, int to, int batches, int[] classes, double[] scores) {
+		if(data.features() != layers[0] || data.classes() != layers[layers.length - 1])
+			throw new RuntimeException("Dataset size mismatch");
+
+		Buffers buf = new Buffers(Math.min(batches, to - from));
+		for(int i = from; i < to; i += batches) {
+			int end = Math.min(i + batches, to);
+
+			//the last batch might be smaller than the others
+			if(end - i != buf.columns)
+				buf = new Buffers(end - i);
+			data.gather(null, i, end, buf.input, buf.target);
+			process(buf.input.getFloats(), buf);
+			Matrix.maxColumns(buf.output, classes, i - from);
+
+			if(scores != null) {
+				int outputs = buf.output.getRows();
+				for(int j = 0; j < buf.columns; j++) {
+					for(int k = 0; k < outputs; k++) {
+						scores[(i - from + j) * outputs + k] = buf.output.get(k, j);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * runs the inputs (one column per sample) through all layers, the returned
+	 * outputs belong to the buffers and are overwritten by their next use
+	 */
+	private float[] process(float[] in, Buffers buf) {
+		int n = buf.columns;
+
+		for(int l = 0; l < layers.length - 1; l++) {
+			int rows = layers[l + 1], cols = layers[l];
+			quantize(in, cols, n, buf);
+
+			byte[] w = weights[l];
+			int[] row = buf.row, q = buf.quantized;
+			float[] out = buf.activations[l];
+			for(int r = 0; r < rows; r++) {
+				for(int k = 0; k < cols; k++) {
+					row[k] = w[r * cols + k];
+				}
+				float scale = scales[l][r], bias = biases[l][r];
+				for(int j = 0; j < n; j++) {
+					//the integer dot product of the row with one sample
+					int sum = 0, p = j * cols;
+					for(int k = 0; k < cols; k++) {
+						sum += row[k] * q[p + k];
+					}
+					//scaling back with the factors of the row and of the sample
+					out[r * n + j] = sum * scale * buf.scales[j] + bias;
+				}
+			}
+			//the activation function over all dequantized outputs of the layer at once
+			activation[l].apply(out, out, 0, rows * n);
+			in = out;
+		}
+		return in;
+	}
+
+	/**
+	 * quantizes every column of the given rows of inputs by its own factor,
+	 * storing the quantized columns one after another
+	 */
+	private static void quantize(float[] in, int rows, int n, Buffers buf) {
+		float[] max = buf.scales, inv = buf.inverse;
+		for(int j = 0; j < n; j++) {
+			max[j] = 0;
+		}
+		for(int k = 0; k < rows; k++) {
+			for(int j = 0; j < n; j++) {
+				max[j] = Math.max(max[j], Math.abs(in[k * n + j]));
+			}
+		}
+		for(int j = 0; j < n; j++) {
+			inv[j] = max[j] == 0 ? 0 : LEVELS / max[j];
+			max[j] /= LEVELS;
+		}
+		//rint is much cheaper than round and only differs from it at exact halves
+		for(int j = 0; j < n; j++) {
+			float f = inv[j];
+			for(int k = 0; k < rows; k++) {
+				buf.quantized[j * rows + k] = (int) Math.rint(in[k * n + j] * f);
+			}
+		}
+	}
+
+	public String toString() {
+		long doubles = 0;
+		for(int l = 0; l < weights.length; l++) {
+			doubles += (long) Double.BYTES * (weights[l].length + biases[l].length);
+		}
+		StringBuilder sb = new StringBuilder();
+		for(int l = 0; l < layers.length; l++) {
+			sb.append(l == 0 ? "" : "-").append(layers[l]);
+		}
+		return sb.append(String.format(" int8 network: %d bytes of parameters instead of %d in double precision", getBytes(), doubles)).toString();
+	}
+
+	/**
+	 * the buffers for a fixed amount of samples, which must only be used by one thread at a time
+	 */
+	private class Buffers {
+
+		private final int columns;
+
+		private final Matrix input, target, output;
+
+		/**
+		 * the quantized inputs of the current layer sample by sample
+		 * and the factor and inverse factor of every sample
+		 */
+		private final int[] quantized;
+		private final float[] scales, inverse;
+
+		/**
+		 * the current row of weights widened to ints
+		 */
+		private final int[] row;
+
+		/**
+		 * the activations of every layer after the input
+		 */
+		private final float[][] activations;
+
+		Buffers(int columns) {
+			this.columns = columns;
+			this.input = new Matrix(layers[0], columns, Precision.SINGLE);
+			this.target = new Matrix(layers[layers.length - 1], columns, Precision.SINGLE);
+
+			int widest = 0;
+			this.activations = new float[layers.length - 1][];
+			for(int l = 0; l < layers.length - 1; l++) {
+				widest = Math.max(widest, layers[l]);
+				activations[l] = new float[layers[l + 1] * columns];
+			}
+			this.output = new Matrix(activations[layers.length - 2], layers[layers.length - 1], columns);
+
+			this.quantized = new int[widest * columns];
+			this.scales = new float[columns];
+			this.inverse = new float[columns];
+			this.row = new int[widest];
+		}
+	}
+
+}
@@ -0,0 +1,40 @@
+package net;
+
+/**
+ * the learning rate of every epoch, derived from the learning rate train was called with
+ */
+public interface Schedule {
+	
+	/**
+	 * the same learning rate in every epoch
+	 */
+	public static final Schedule CONSTANT = (rate, epoch) -> rate;
+	
+	/**
+	 * multiplies the learning rate with the factor after every given amount of epochs
+	 */
+	public static Schedule step(int epochs, double factor) {
+		return (rate, epoch) -> rate * Math.pow(factor, epoch / epochs);
+	}
+	
+	/**
+	 * multiplies the learning rate with the decay after every epoch
+	 */
+	public static Schedule exponential(double decay) {
+		return (rate, epoch) -> rate * Math.pow(decay, epoch);
+	}
+	
+	/**
+	 * lowers the learning rate along half a cosine from the full rate in the first epoch
+	 * down to the given fraction of it after the given amount of epochs
+	 */
+	public static Schedule cosine(int epochs, double fraction) {
+		return (rate, epoch) -> rate * (fraction + (1 - fraction) * (1 + Math.cos(Math.PI * Math.min(epoch, epochs) / epochs)) / 2);
+	}
+	
+	/**
+	 * the learning rate of the given epoch (starting at 0)
+	 */
+	public double rate(double rate, int epoch);
+
+}
@@ -0,0 +1,215 @@
+package net;
+
+import utils.Activation;
+import utils.Dataset;
+import utils.Matrix;
+import utils.Precision;
+import utils.SparseMatrix;
+
+/**
+ * an inference-only copy of a trained network with the weights of its pruned layers in
+ * compressed sparse rows, so that only their nonzero weights are stored and multiplied.
+ * a layer whose share of nonzero weights is above the given density stays dense, as the
+ * sparse products only pay off once most of the weights are zero. the network keeps the
+ * precision of the original one, so that the pruned weights give the same outputs up to
+ * the order in which the products are added up
+ */
+public class SparseNetwork implements Classifier {
+	
+	/**
+	 * the density up to which compress(network) puts a layer in compressed sparse rows. every
+	 * nonzero weight is stored with the index of its column and multiplies an input it has to
+	 * look up first, so the sparse rows only take less memory and time than the dense ones
+	 * once at most about half of the weights are left
+	 */
+	public static final double BREAK_EVEN = 0.5;
+	
+	private final int[] layers;
+	private final Activation[] activation;
+	private final Precision precision;
+	
+	/**
+	 * the weights of every layer either as sparse matrix or as dense one, the other one is null
+	 */
+	private final SparseMatrix[] sparse;
+	private final Matrix[] dense;
+	
+	private final Matrix[] biases;
+	
+	private SparseNetwork(int[] layers, Activation[] activation, Precision precision) {
+		this.layers = layers;
+		this.activation = activation;
+		this.precision = precision;
+		this.sparse = new SparseMatrix[layers.length - 1];
+		this.dense = new Matrix[layers.length - 1];
+		this.biases = new Matrix[layers.length - 1];
+	}
+	
+	/**
+	 * compresses the weights of the layers of the given network as they are right now
+	 * which are at most half nonzero (see BREAK_EVEN), the others stay dense
+	 */
+	public static SparseNetwork compress(NeuralNetwork network) {
+		return compress(network, BREAK_EVEN);
+	}
+	
+	/**
+	 * compresses the weights of the layers of which at most the given share is nonzero
+	 * and copies the weights of the other layers as they are
+	 */
+	public static SparseNetwork compress(NeuralNetwork network, double density) {
+		int[] layers = network.getLayers();
+		SparseNetwork s = new SparseNetwork(layers, network.getActivation().clone(), network.getPrecision());
+		
+		for(int l = 0; l < layers.length - 1; l++) {
+			SparseMatrix w = SparseMatrix.of(network.getWeights()[l]);
+			if(w.getDensity() <= density)
+				s.sparse[l] = w;
+			else
+				s.dense[l] = w.toDense(null);
+			s.biases[l] = network.getBiases()[l].copy();
+		}
+		return s;
+	}
+	
+	/**
+	 * the amount of neurons on every layer
+	 */
+	public int[] getLayers() {
+		return layers.clone();
+	}
+	
+	/**
+	 * whether the weights of the given layer are stored as sparse matrix
+	 */
+	public boolean isSparse(int layer) {
+		return sparse[layer] != null;
+	}
+	
+	/**
+	 * the share of the weights of the given layer that are nonzero
+	 */
+	public double getDensity(int layer) {
+		return sparse[layer] != null ? sparse[layer].getDensity() : SparseMatrix.of(dense[layer]).getDensity();
+	}
+	
+	/**
+	 * the amount of bytes of the weights and biases of the given layer
+	 */
+	public long getBytes(int layer) {
+		long weights = sparse[layer] != null ? sparse[layer].getBytes() : (long) size() * dense[layer].getRows() * dense[layer].getColumns();
+		return weights + (long) size() * biases[layer].getRows();
+	}
+	
+	/**
+	 * the amount of bytes of all weights and biases
+	 */
+	public long getBytes() {
+		long bytes = 0;
+		for(int l = 0; l < layers.length - 1; l++) {
+			bytes += getBytes(l);
+		}
+		return bytes;
+	}
+	
+	/**
+	 * the amount of bytes of one value in the precision of the network
+	 */
+	private int size() {
+		return precision == Precision.SINGLE ? Float.BYTES : Double.BYTES;
+	}
+	
+	/**
+	 * processes the outputs for an input matrix in which every column is a single sample
+	 */
+	public Matrix process(Matrix mat) {
+		Matrix[] outputs = new Matrix[layers.length - 1];
+		for(int l = 0; l < layers.length - 1; l++) {
+			outputs[l] = new Matrix(layers[l + 1], mat.getColumns(), precision);
+		}
+		return process(mat.to(precision), outputs);
+	}
+	
+	@Override
+	public void classify(Dataset data, int from, int to, int batches, int[] classes, double[] scores) {
+		if(data.features() != layers[0] || data.classes() != layers[layers.length - 1])
+			throw new RuntimeException("Dataset size mismatch");
+		
+		Buffers buf = new Buffers(Math.min(batches, to - from));
+		for(int i = from; i < to; i += batches) {
+			int end = Math.min(i + batches, to);
+			
+			//the last batch might be smaller than the others
+			if(end - i != buf.columns)
+				buf = new Buffers(end - i);
+			data.gather(null, i, end, buf.input, buf.target);
+			Matrix out = process(buf.input, buf.outputs);
+			Matrix.maxColumns(out, classes, i - from);
+			
+			if(scores != null) {
+				int outputs = out.getRows();
+				for(int j = 0; j < buf.columns; j++) {
+					for(int k = 0; k < outputs; k++) {
+						scores[(i - from + j) * outputs + k] = out.get(k, j);
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * runs the inputs (one column per sample) through all layers, writing
+	 * the activations of every layer into the given matrices
+	 */
+	private Matrix process(Matrix mat, Matrix[] outputs) {
+		for(int l = 0; l < layers.length - 1; l++) {
+			if(sparse[l] != null)
+				mat = Matrix.dense(sparse[l], mat, biases[l], activation[l], outputs[l]);
+			else
+				mat = Matrix.dense(dense[l], mat, biases[l], activation[l], null, outputs[l]);
+		}
+		return mat;
+	}
+	
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for(int l = 0; l < layers.length; l++) {
+			sb.append(l == 0 ? "" : "-").append(layers[l]);
+		}
+		sb.append(" sparse network:");
+		long total = 0;
+		for(int l = 0; l < layers.length - 1; l++) {
+			long full = (long) size() * layers[l + 1] * (layers[l] + 1);
+			total += full;
+			sb.append(String.format("%n  layer %d: %.1f%% of %d weights nonzero, %s, %d bytes instead of %d", l + 1,
+					getDensity(l) * 100, layers[l + 1] * layers[l], isSparse(l) ? "sparse" : "dense", getBytes(l), full));
+		}
+		return sb.append(String.format("%n  total: %d bytes of parameters instead of %d", getBytes(), total)).toString();
+	}
+	
+	/**
+	 * the buffers for a fixed amount of samples, which must only be used by one thread at a time
+	 */
+	private class Buffers {
+		
+		private final int columns;
+		
+		private final Matrix input, target;
+		
+		/**
+		 * the activations of every layer after the input
+		 */
+		private final Matrix[] outputs;
+		
+		Buffers(int columns) {
+			this.columns = columns;
+			this.input = new Matrix(layers[0], columns, precision);
+			this.target = new Matrix(layers[layers.length - 1], columns, precision);
+			this.outputs = new Matrix[layers.length - 1];
+			for(int l = 0; l < layers.length - 1; l++) {
+				outputs[l] = new Matrix(layers[l + 1], columns, precision);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,22 @@
+package net;
+
+/**
+ * is told about the metrics of every batch and every epoch while a network trains.
+ * the listeners are called on the training thread, so they should return quickly,
+ * and the metrics they get are reused afterwards (see Metrics.copy)
+ */
+public interface TrainingListener {
+	
+	/**
+	 * after every batch of the synchronous training
+	 */
+	public default void batch(Metrics metrics) {
+	}
+	
+	/**
+	 * after every epoch, with the metrics of all its batches added up
+	 */
+	public default void epoch(Metrics metrics) {
+	}
+
+}
@@ -0,0 +1,182 @@
+package net;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import utils.Dataset;
+import utils.Matrix;
+
+/**
+ * validates snapshots of a network on the held-out samples from (inclusive) to (exclusive)
+ * of a dataset on a background thread, so that the network keeps training while its last
+ * snapshot is validated. there is at most one snapshot being validated at a time, and the
+ * best snapshot so far is kept (and saved as checkpoint if there is a file for it)
+ */
+class Validator implements AutoCloseable {
+	
+	private final NeuralNetwork network;
+	private final Dataset data;
+	private final int from, to;
+	
+	/**
+	 * the accuracy that ends the training once a snapshot reaches it
+	 */
+	private final double target;
+	
+	/**
+	 * the amount of epochs without a better snapshot that ends the training
+	 */
+	private final int patience;
+	
+	/**
+	 * the file the best snapshot is saved to, or null
+	 */
+	private final String checkpoint;
+	
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+		Thread thread = new Thread(r, "validator");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
+	/**
+	 * the snapshot that is validated next (or right now) and the best one so far,
+	 * the two swap places whenever a snapshot turns out better than the best one
+	 */
+	private NeuralNetwork current, best;
+	
+	/**
+	 * the validation of the current snapshot, or null if there is none running
+	 */
+	private Future<Evaluation> pending;
+	
+	/**
+	 * the epoch of the current snapshot and of the best one (-1 before there is one)
+	 */
+	private int epoch, bestEpoch = -1;
+	
+	/**
+	 * the accuracy of the best snapshot, only changed while no validation is running
+	 */
+	private double accuracy = -1;
+	
+	private boolean stop;
+	
+	Validator(NeuralNetwork network, Dataset data, int from, int to, double target, int patience, String checkpoint) {
+		this.network = network;
+		this.data = data;
+		this.from = from;
+		this.to = to;
+		this.target = target;
+		this.patience = patience;
+		this.checkpoint = checkpoint;
+		this.current = copy(network, null);
+		this.best = copy(network, null);
+	}
+	
+	/**
+	 * collects the result of the running validation if it has finished, without waiting for it.
+	 * whether the training should stop
+	 */
+	boolean poll() {
+		if(pending != null && pending.isDone())
+			collect();
+		return stop;
+	}
+	
+	/**
+	 * validates a snapshot of the parameters of the network after the given epoch (starting at 0),
+	 * after waiting for the previous validation if it is still running. whether the training should
+	 * stop, in which case no snapshot is taken
+	 */
+	boolean submit(int epoch) {
+		if(pending != null)
+			collect();
+		if(stop)
+			return true;
+		
+		copy(network, current);
+		this.epoch = epoch;
+		NeuralNetwork snapshot = current;
+		double threshold = accuracy;
+		pending = executor.submit(() -> {
+			Evaluation evaluation = Evaluation.evaluate(snapshot, data, from, to, 256, null);
+			//the snapshot is saved here, so that writing the file does not hold up the training
+			if(checkpoint != null && evaluation.accuracy() > threshold)
+				Checkpoint.save(snapshot, checkpoint);
+			return evaluation;
+		});
+		return false;
+	}
+	
+	/**
+	 * waits for the last validation and copies the parameters of the best snapshot back into the network.
+	 * the accuracy of the best snapshot
+	 */
+	double finish() {
+		if(pending != null)
+			collect();
+		if(bestEpoch >= 0) {
+			copy(best, network);
+			System.out.println(String.format("Restored the parameters of epoch %d with a validation accuracy of %.2f%%", bestEpoch + 1, accuracy * 100));
+		}
+		return accuracy;
+	}
+	
+	private void collect() {
+		Evaluation evaluation;
+		try {
+			evaluation = pending.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pending = null;
+		}
+		
+		boolean better = evaluation.accuracy() > accuracy;
+		if(better) {
+			NeuralNetwork swap = best;
+			best = current;
+			current = swap;
+			accuracy = evaluation.accuracy();
+			bestEpoch = epoch;
+		}
+		System.out.println(String.format("Validation: epoch %d Accuracy: %.2f%%%s", epoch + 1, evaluation.accuracy() * 100, better ? " (best)" : ""));
+		
+		if(evaluation.accuracy() >= target || epoch - bestEpoch >= patience)
+			stop = true;
+	}
+	
+	/**
+	 * copies the parameters of src into dst, or into a new network with the same layers and functions
+	 */
+	private static NeuralNetwork copy(NeuralNetwork src, NeuralNetwork dst) {
+		if(dst == null) {
+			dst = new NeuralNetwork(src.getLayers(), src.getCost(), src.getPrecision());
+			dst.activate(src.getActivation(), src.getDerivative());
+			dst.initialize();
+		}
+		copy(src.getWeights(), dst.getWeights());
+		copy(src.getBiases(), dst.getBiases());
+		return dst;
+	}
+	
+	private static void copy(Matrix[] src, Matrix[] dst) {
+		for(int i = 0; i < src.length; i++) {
+			if(src[i].getFloats() != null)
+				System.arraycopy(src[i].getFloats(), 0, dst[i].getFloats(), 0, src[i].getFloats().length);
+			else
+				System.arraycopy(src[i].getValues(), 0, dst[i].getValues(), 0, src[i].getValues().length);
+		}
+	}
+	
+	public void close() {
+		executor.shutdownNow();
+	}
+
+}
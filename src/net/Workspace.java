@@ -0,0 +1,118 @@
+package net;
+
+import utils.Derivative;
+import utils.Matrix;
+import utils.Precision;
+import utils.SparseBatch;
+
+/**
+ * preallocated buffers for every layer of a network and a fixed amount of samples,
+ * so that processing and back-propagation fill the same matrices again and again
+ * instead of allocating new ones. a workspace must only be used by one thread at a time
+ */
+public class Workspace {
+	
+	/**
+	 * the amount of samples (columns) all buffers are sized for
+	 */
+	final int columns;
+	
+	private final int[] layers;
+	private final Precision precision;
+	
+	/**
+	 * the batch of inputs and expected outputs, one column per sample. both are only allocated
+	 * once they are used, so a workspace that processes given matrices has neither of them
+	 */
+	private Matrix input, target;
+	
+	/**
+	 * the batch of inputs if the dataset gathers only their nonzero values, which is
+	 * only allocated for such datasets
+	 */
+	private SparseBatch sparse;
+	
+	/**
+	 * the weighted sums of every layer before the activation function, null for the
+	 * layers whose derivative is calculated from their activations
+	 */
+	final Matrix[] sums;
+	
+	/**
+	 * the activations of every layer, the first one is left empty as every pass is given its input
+	 */
+	final Matrix[] activations;
+	
+	/**
+	 * the error of every layer
+	 */
+	final Matrix[] errors;
+	
+	/**
+	 * the changes of the weights and biases summed over the batch
+	 */
+	final Matrix[][] gradients;
+	
+	/**
+	 * whether the passes through the layers are timed into metrics, which only
+	 * the workspaces of a network with training listeners are
+	 */
+	boolean timed;
+	
+	/**
+	 * the time spent in every layer and the bytes allocated since the metrics were last collected,
+	 * null until the workspace is timed for the first time
+	 */
+	Metrics metrics;
+	
+	Workspace(int[] layers, int columns, Precision precision, Derivative[] derivative) {
+		this.columns = columns;
+		this.layers = layers;
+		this.precision = precision;
+		this.sums = new Matrix[layers.length - 1];
+		this.activations = new Matrix[layers.length];
+		this.errors = new Matrix[layers.length - 1];
+		this.gradients = new Matrix[2][layers.length - 1];
+		
+		for(int i = 0; i < layers.length - 1; i++) {
+			if(derivative == null || !derivative[i].outputForm())
+				sums[i] = new Matrix(layers[i + 1], columns, precision);
+			activations[i + 1] = new Matrix(layers[i + 1], columns, precision);
+			errors[i] = new Matrix(layers[i + 1], columns, precision);
+			gradients[0][i] = new Matrix(layers[i + 1], layers[i], precision);
+			gradients[1][i] = new Matrix(layers[i + 1], 1, precision);
+		}
+	}
+	
+	public int getColumns() {
+		return columns;
+	}
+	
+	/**
+	 * the dense batch of inputs
+	 */
+	Matrix input() {
+		if(input == null)
+			input = new Matrix(layers[0], columns, precision);
+		return input;
+	}
+	
+	/**
+	 * the batch of expected outputs, which only training needs
+	 */
+	Matrix target() {
+		if(target == null)
+			target = new Matrix(layers[layers.length - 1], columns, precision);
+		return target;
+	}
+	
+	/**
+	 * the sparse batch of inputs
+	 */
+	SparseBatch sparse() {
+		if(sparse == null)
+			sparse = new SparseBatch(layers[0], columns, precision);
+		return sparse;
+	}
+	
+}
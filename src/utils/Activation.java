@@ -1,5 +1,10 @@
 package utils;
 
+/**
+ * an activation function, applied to a single value with f or to whole arrays with apply.
+ * every function below overrides the bulk methods with its own loop, so that the function
+ * is inlined into the loop instead of being called through the interface for every value
+ */
 public interface Activation {
 	
 	/**
@@ -10,6 +15,14 @@ public interface Activation {
 		public double f(double val) {
 			return val;
 		}
+		
+		public void apply(double[] src, double[] dst, int off, int n) {
+			System.arraycopy(src, off, dst, off, n);
+		}
+		
+		public void apply(float[] src, float[] dst, int off, int n) {
+			System.arraycopy(src, off, dst, off, n);
+		}
 	};
 	
 	/**
@@ -18,7 +31,19 @@ public interface Activation {
 	public static final Activation Sigmoid = new Activation() {
 		
 		public double f(double val) {
-			return 1 / (1 + Math.pow(Math.E, -val));
+			return 1 / (1 + Math.exp(-val));
+		}
+		
+		public void apply(double[] src, double[] dst, int off, int n) {
+			for(int i = off; i < off + n; i++) {
+				dst[i] = 1 / (1 + Math.exp(-src[i]));
+			}
+		}
+		
+		public void apply(float[] src, float[] dst, int off, int n) {
+			for(int i = off; i < off + n; i++) {
+				dst[i] = (float) (1 / (1 + Math.exp(-src[i])));
+			}
 		}
 	};
 	
@@ -30,6 +55,18 @@ public interface Activation {
 		public double f(double val) {
 			return Math.max(0, val);
 		}
+		
+		public void apply(double[] src, double[] dst, int off, int n) {
+			for(int i = off; i < off + n; i++) {
+				dst[i] = Math.max(0, src[i]);
+			}
+		}
+		
+		public void apply(float[] src, float[] dst, int off, int n) {
+			for(int i = off; i < off + n; i++) {
+				dst[i] = Math.max(0, src[i]);
+			}
+		}
 	};
 	
 	/**
@@ -40,6 +77,18 @@ public interface Activation {
 		public double f(double val) {
 			return Math.max(0.01 * val, val);
 		}
+		
+		public void apply(double[] src, double[] dst, int off, int n) {
+			for(int i = off; i < off + n; i++) {
+				dst[i] = Math.max(0.01 * src[i], src[i]);
+			}
+		}
+		
+		public void apply(float[] src, float[] dst, int off, int n) {
+			for(int i = off; i < off + n; i++) {
+				dst[i] = Math.max(0.01f * src[i], src[i]);
+			}
+		}
 	};
 	
 	/**
@@ -48,7 +97,19 @@ public interface Activation {
 	public static final Activation SmoothReLU = new Activation() {
 		
 		public double f(double val) {
-			return Math.log(1 + Math.pow(Math.E, val));
+			return Math.log1p(Math.exp(val));
+		}
+		
+		public void apply(double[] src, double[] dst, int off, int n) {
+			for(int i = off; i < off + n; i++) {
+				dst[i] = Math.log1p(Math.exp(src[i]));
+			}
+		}
+		
+		public void apply(float[] src, float[] dst, int off, int n) {
+			for(int i = off; i < off + n; i++) {
+				dst[i] = (float) Math.log1p(Math.exp(src[i]));
+			}
 		}
 	};
 	
@@ -60,11 +121,70 @@ public interface Activation {
 		public double f(double val) {
 			return Math.tanh(val);
 		}
+		
+		public void apply(double[] src, double[] dst, int off, int n) {
+			for(int i = off; i < off + n; i++) {
+				dst[i] = Math.tanh(src[i]);
+			}
+		}
+		
+		public void apply(float[] src, float[] dst, int off, int n) {
+			for(int i = off; i < off + n; i++) {
+				dst[i] = (float) Math.tanh(src[i]);
+			}
+		}
+	};
+	
+	/**
+	 * tanh through the exp intrinsic instead of Math.tanh, see FastMath.tanh for its error
+	 */
+	public static final Activation FastTanh = new Activation() {
+		
+		public double f(double val) {
+			return FastMath.tanh(val);
+		}
+		
+		public void apply(double[] src, double[] dst, int off, int n) {
+			for(int i = off; i < off + n; i++) {
+				dst[i] = FastMath.tanh(src[i]);
+			}
+		}
+		
+		public void apply(float[] src, float[] dst, int off, int n) {
+			for(int i = off; i < off + n; i++) {
+				dst[i] = FastMath.tanh(src[i]);
+			}
+		}
 	};
 	
 	/**
 	 * the function f(x)
 	 */
 	public double f(double val);
+	
+	/**
+	 * dst[i] = f(src[i]) for the first n values
+	 */
+	public default void apply(double[] src, double[] dst, int n) {
+		apply(src, dst, 0, n);
+	}
+	
+	/**
+	 * dst[i] = f(src[i]) for the n values from the offset on
+	 */
+	public default void apply(double[] src, double[] dst, int off, int n) {
+		for(int i = off; i < off + n; i++) {
+			dst[i] = f(src[i]);
+		}
+	}
+	
+	/**
+	 * dst[i] = f(src[i]) for the n values from the offset on
+	 */
+	public default void apply(float[] src, float[] dst, int off, int n) {
+		for(int i = off; i < off + n; i++) {
+			dst[i] = (float) f(src[i]);
+		}
+	}
 
 }
@@ -0,0 +1,87 @@
+package utils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * allocates matrices off the heap, in direct memory that is aligned to 64 bytes (a cache line
+ * and a vector of AVX-512). closing the arena detaches its matrices from their memory, so using
+ * them afterwards fails. the memory itself is only freed by the garbage collector once nothing
+ * refers to it anymore, neither a matrix nor a view from getDoubleBuffer or getFloatBuffer, so
+ * it is never read or written after it has been freed. several threads may allocate from the
+ * arena and close it, but a thread that still uses a matrix while another one closes the arena
+ * may keep on using it for a while
+ */
+public class Arena implements AutoCloseable {
+	
+	/**
+	 * the alignment of every allocation
+	 */
+	public static final int ALIGNMENT = 64;
+	
+	private final List<Matrix> matrices = new ArrayList<>();
+	private long bytes;
+	private boolean closed;
+	
+	/**
+	 * a matrix of zeros in new memory of the arena
+	 */
+	public synchronized Matrix allocate(int rows, int cols, Precision precision) {
+		if(closed)
+			throw new RuntimeException("The arena is closed");
+		if(rows < 0 || cols < 0)
+			throw new RuntimeException("Matrix size must be non-negative");
+		
+		long size = (long) rows * cols * (precision == Precision.SINGLE ? Float.BYTES : Double.BYTES);
+		if(size > Integer.MAX_VALUE - 2 * ALIGNMENT)
+			throw new RuntimeException("The matrix is too large for a direct buffer");
+		
+		//direct buffers are only aligned to 8 bytes, so the aligned part of a slightly larger one is used,
+		//which also ends on the alignment
+		long padded = (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+		ByteBuffer buffer = ByteBuffer.allocateDirect((int) padded + ALIGNMENT);
+		ByteBuffer aligned = buffer.alignedSlice(ALIGNMENT).limit((int) size).order(ByteOrder.nativeOrder());
+		Matrix m = new Matrix(aligned, rows, cols, precision);
+		matrices.add(m);
+		bytes += buffer.capacity();
+		return m;
+	}
+	
+	/**
+	 * a copy of the given matrix in new memory of the arena
+	 */
+	public Matrix copy(Matrix m) {
+		Matrix copy = allocate(m.getRows(), m.getColumns(), m.getPrecision());
+		for(int i = 0; i < m.getRows(); i++) {
+			for(int j = 0; j < m.getColumns(); j++) {
+				copy.set(i, j, m.get(i, j));
+			}
+		}
+		return copy;
+	}
+	
+	/**
+	 * the amount of bytes allocated so far, including the padding for the alignment
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+	
+	/**
+	 * detaches all matrices of the arena, which can not be used anymore, and lets go of
+	 * their memory, which is freed as soon as the garbage collector finds it unreachable
+	 */
+	@Override
+	public synchronized void close() {
+		if(closed)
+			return;
+		closed = true;
+		for(Matrix m : matrices) {
+			m.detach();
+		}
+		matrices.clear();
+	}
+
+}
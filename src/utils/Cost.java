@@ -4,18 +4,30 @@ public interface Cost {
 	
 	public static final Cost QUADRATIC = new Cost() {
 
-		public Matrix d(Matrix out, Matrix res, Matrix sum, Derivative derivative) {
-			return Matrix.pro(Matrix.sub(out, res, null), Matrix.vec(sum, null, derivative), null);
+		public Matrix d(Matrix out, Matrix res, Matrix sum, Derivative derivative, Matrix dst) {
+			Matrix diff = Matrix.sub(out, res, dst);
+			//the derivative is calculated from the outputs if it can be, then sum is not needed
+			if(derivative.outputForm())
+				return Matrix.proOut(diff, out, derivative, diff);
+			return Matrix.pro(diff, sum, derivative, diff);
 		}
 	};
 
 	public static final Cost CROSS_ENTROPY = new Cost() {
 
-		public Matrix d(Matrix out, Matrix res, Matrix sum, Derivative derivative) {
-			return Matrix.sub(out, res, null);
+		public Matrix d(Matrix out, Matrix res, Matrix sum, Derivative derivative, Matrix dst) {
+			return Matrix.sub(out, res, dst);
 		}
 	};
 
-	public Matrix d(Matrix out, Matrix res, Matrix sum, Derivative derivative);
+	public default Matrix d(Matrix out, Matrix res, Matrix sum, Derivative derivative) {
+		return d(out, res, sum, derivative, null);
+	}
+
+	/**
+	 * the error of the output layer written into dst, or into a new matrix if dst is null.
+	 * sum may be null if the output form of the derivative is used
+	 */
+	public Matrix d(Matrix out, Matrix res, Matrix sum, Derivative derivative, Matrix dst);
 
 }
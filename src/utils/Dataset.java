@@ -0,0 +1,93 @@
+package utils;
+
+/**
+ * a set of samples that are gathered into batches on demand, with one column per sample
+ * in the input matrix and the expected (one-hot) output of the sample in the output matrix
+ */
+public interface Dataset {
+	
+	/**
+	 * the amount of samples
+	 */
+	public int size();
+	
+	/**
+	 * the amount of values of a single input
+	 */
+	public int features();
+	
+	/**
+	 * the amount of values of a single output, which is the amount of classes
+	 */
+	public int classes();
+	
+	/**
+	 * the class of the given sample
+	 */
+	public int label(int i);
+	
+	/**
+	 * copies the samples order[from] to order[to - 1] as columns into in and their expected
+	 * outputs into out, or the samples from to to - 1 themselves if the order is null.
+	 * out may be null if only the inputs are needed, like for classifying
+	 */
+	public void gather(int[] order, int from, int to, Matrix in, Matrix out);
+	
+	/**
+	 * whether the inputs can also be gathered into a sparse batch, which
+	 * pays off for inputs that are mostly zero like the pixels of digits
+	 */
+	public default boolean sparse() {
+		return false;
+	}
+	
+	/**
+	 * gathers the same samples as gather, but only their nonzero inputs into the sparse batch
+	 */
+	public default void gather(int[] order, int from, int to, SparseBatch in, Matrix out) {
+		throw new RuntimeException("The dataset has no sparse inputs");
+	}
+	
+	/**
+	 * a dataset over the given column vectors of inputs and expected outputs
+	 */
+	public static Dataset of(Matrix[] data, Matrix[] res) {
+		if(data.length != res.length)
+			throw new RuntimeException("Dataset size mismatch");
+		
+		return new Dataset() {
+			
+			public int size() {
+				return data.length;
+			}
+			
+			public int features() {
+				return data[0].getRows();
+			}
+			
+			public int classes() {
+				return res[0].getRows();
+			}
+			
+			public int label(int i) {
+				return Matrix.max(res[i])[0];
+			}
+			
+			public void gather(int[] order, int from, int to, Matrix in, Matrix out) {
+				if(in.getColumns() != to - from || out != null && out.getColumns() != to - from)
+					throw new RuntimeException("Matrix size mismatch");
+				
+				for(int j = 0; j < to - from; j++) {
+					int s = order == null ? from + j : order[from + j];
+					for(int p = 0; p < in.getRows(); p++) {
+						in.set(p, j, data[s].get(p, 0));
+					}
+					for(int p = 0; out != null && p < out.getRows(); p++) {
+						out.set(p, j, res[s].get(p, 0));
+					}
+				}
+			}
+		};
+	}
+	
+}
@@ -1,7 +1,16 @@
 package utils;
 
+/**
+ * the derivative of an activation function, applied to a single value with d or to whole
+ * arrays with apply and pro. like the activation functions every derivative below
+ * overrides the bulk methods with its own loop.
+ *
+ * the derivatives below also have an output form (dOut and proOut), which calculates f'(x)
+ * from the output y = f(x) of the activation function instead of x. back-propagation uses
+ * it so that the weighted sums of a layer do not have to be kept for its derivative
+ */
 public interface Derivative {
-
+	
 	/**
 	 * 
 	 */
@@ -10,26 +19,155 @@ public interface Derivative {
 		public double d(double val) {
 			return 1;
 		}
+		
+		public void apply(double[] src, double[] dst, int off, int n) {
+			for(int i = off; i < off + n; i++) {
+				dst[i] = 1;
+			}
+		}
+		
+		public void apply(float[] src, float[] dst, int off, int n) {
+			for(int i = off; i < off + n; i++) {
+				dst[i] = 1;
+			}
+		}
+		
+		public void pro(double[] a, double[] src, double[] dst, int off, int n) {
+			System.arraycopy(a, off, dst, off, n);
+		}
+		
+		public void pro(float[] a, float[] src, float[] dst, int off, int n) {
+			System.arraycopy(a, off, dst, off, n);
+		}
+		
+		public boolean outputForm() {
+			return true;
+		}
+		
+		public double dOut(double y) {
+			return 1;
+		}
+		
+		public void proOut(double[] a, double[] y, double[] dst, int off, int n) {
+			System.arraycopy(a, off, dst, off, n);
+		}
+		
+		public void proOut(float[] a, float[] y, float[] dst, int off, int n) {
+			System.arraycopy(a, off, dst, off, n);
+		}
 	};
 	
 	/**
-	 * 
+	 * s(x) (1 - s(x)), or y (1 - y) from the output
 	 */
 	public static final Derivative Sigmoid = new Derivative() {
 		
 		public double d(double val) {
-			return Activation.Sigmoid.f(val) * (1 - Activation.Sigmoid.f(val));
+			double s = 1 / (1 + Math.exp(-val));
+			return s * (1 - s);
+		}
+		
+		public void apply(double[] src, double[] dst, int off, int n) {
+			for(int i = off; i < off + n; i++) {
+				double s = 1 / (1 + Math.exp(-src[i]));
+				dst[i] = s * (1 - s);
+			}
+		}
+		
+		public void apply(float[] src, float[] dst, int off, int n) {
+			for(int i = off; i < off + n; i++) {
+				double s = 1 / (1 + Math.exp(-src[i]));
+				dst[i] = (float) (s * (1 - s));
+			}
+		}
+		
+		public void pro(double[] a, double[] src, double[] dst, int off, int n) {
+			for(int i = off; i < off + n; i++) {
+				double s = 1 / (1 + Math.exp(-src[i]));
+				dst[i] = a[i] * s * (1 - s);
+			}
+		}
+		
+		public void pro(float[] a, float[] src, float[] dst, int off, int n) {
+			for(int i = off; i < off + n; i++) {
+				double s = 1 / (1 + Math.exp(-src[i]));
+				dst[i] = (float) (a[i] * s * (1 - s));
+			}
+		}
+		
+		public boolean outputForm() {
+			return true;
+		}
+		
+		public double dOut(double y) {
+			return y * (1 - y);
+		}
+		
+		public void proOut(double[] a, double[] y, double[] dst, int off, int n) {
+			for(int i = off; i < off + n; i++) {
+				dst[i] = a[i] * y[i] * (1 - y[i]);
+			}
+		}
+		
+		public void proOut(float[] a, float[] y, float[] dst, int off, int n) {
+			for(int i = off; i < off + n; i++) {
+				dst[i] = a[i] * y[i] * (1 - y[i]);
+			}
 		}
 	};
 	
 	/**
-	 * 
+	 * the output form is 0 for x = 0, as the output does not tell 0 from a negative x
 	 */
 	public static final Derivative ReLU = new Derivative() {
 		
 		public double d(double val) {
 			return val < 0 ? 0 : 1;
 		}
+		
+		public void apply(double[] src, double[] dst, int off, int n) {
+			for(int i = off; i < off + n; i++) {
+				dst[i] = src[i] < 0 ? 0 : 1;
+			}
+		}
+		
+		public void apply(float[] src, float[] dst, int off, int n) {
+			for(int i = off; i < off + n; i++) {
+				dst[i] = src[i] < 0 ? 0 : 1;
+			}
+		}
+		
+		public void pro(double[] a, double[] src, double[] dst, int off, int n) {
+			for(int i = off; i < off + n; i++) {
+				dst[i] = src[i] < 0 ? 0 : a[i];
+			}
+		}
+		
+		public void pro(float[] a, float[] src, float[] dst, int off, int n) {
+			for(int i = off; i < off + n; i++) {
+				dst[i] = src[i] < 0 ? 0 : a[i];
+			}
+		}
+		
+		public boolean outputForm() {
+			return true;
+		}
+		
+		public double dOut(double y) {
+			return y > 0 ? 1 : 0;
+		}
+		
+		public void proOut(double[] a, double[] y, double[] dst, int off, int n) {
+			for(int i = off; i < off + n; i++) {
+				dst[i] = y[i] > 0 ? a[i] : 0;
+			}
+		}
+		
+		public void proOut(float[] a, float[] y, float[] dst, int off, int n) {
+			for(int i = off; i < off + n; i++) {
+				dst[i] = y[i] > 0 ? a[i] : 0;
+			}
+		}
 	};
 	
 	public static final Derivative LeakyReLU = new Derivative() {
@@ -37,22 +175,221 @@ public interface Derivative {
 		public double d(double val) {
 			return val < 0 ? 0.01 : 1;
 		}
+		
+		public void apply(double[] src, double[] dst, int off, int n) {
+			for(int i = off; i < off + n; i++) {
+				dst[i] = src[i] < 0 ? 0.01 : 1;
+			}
+		}
+		
+		public void apply(float[] src, float[] dst, int off, int n) {
+			for(int i = off; i < off + n; i++) {
+				dst[i] = src[i] < 0 ? 0.01f : 1;
+			}
+		}
+		
+		public void pro(double[] a, double[] src, double[] dst, int off, int n) {
+			for(int i = off; i < off + n; i++) {
+				dst[i] = src[i] < 0 ? 0.01 * a[i] : a[i];
+			}
+		}
+		
+		public void pro(float[] a, float[] src, float[] dst, int off, int n) {
+			for(int i = off; i < off + n; i++) {
+				dst[i] = src[i] < 0 ? 0.01f * a[i] : a[i];
+			}
+		}
+		
+		public boolean outputForm() {
+			return true;
+		}
+		
+		public double dOut(double y) {
+			return y < 0 ? 0.01 : 1;
+		}
+		
+		public void proOut(double[] a, double[] y, double[] dst, int off, int n) {
+			for(int i = off; i < off + n; i++) {
+				dst[i] = y[i] < 0 ? 0.01 * a[i] : a[i];
+			}
+		}
+		
+		public void proOut(float[] a, float[] y, float[] dst, int off, int n) {
+			for(int i = off; i < off + n; i++) {
+				dst[i] = y[i] < 0 ? 0.01f * a[i] : a[i];
+			}
+		}
 	};
 	
+	/**
+	 * the sigmoid, which is 1 - e^-y from the output y = ln(1 + e^x)
+	 */
 	public static final Derivative SmoothReLU = new Derivative() {
 		
 		public double d(double val) {
-			return Activation.Sigmoid.f(val);
+			return 1 / (1 + Math.exp(-val));
+		}
+		
+		public void apply(double[] src, double[] dst, int off, int n) {
+			for(int i = off; i < off + n; i++) {
+				dst[i] = 1 / (1 + Math.exp(-src[i]));
+			}
+		}
+		
+		public void apply(float[] src, float[] dst, int off, int n) {
+			for(int i = off; i < off + n; i++) {
+				dst[i] = (float) (1 / (1 + Math.exp(-src[i])));
+			}
+		}
+		
+		public void pro(double[] a, double[] src, double[] dst, int off, int n) {
+			for(int i = off; i < off + n; i++) {
+				dst[i] = a[i] / (1 + Math.exp(-src[i]));
+			}
+		}
+		
+		public void pro(float[] a, float[] src, float[] dst, int off, int n) {
+			for(int i = off; i < off + n; i++) {
+				dst[i] = (float) (a[i] / (1 + Math.exp(-src[i])));
+			}
+		}
+		
+		public boolean outputForm() {
+			return true;
+		}
+		
+		public double dOut(double y) {
+			return -Math.expm1(-y);
+		}
+		
+		public void proOut(double[] a, double[] y, double[] dst, int off, int n) {
+			for(int i = off; i < off + n; i++) {
+				dst[i] = -a[i] * Math.expm1(-y[i]);
+			}
+		}
+		
+		public void proOut(float[] a, float[] y, float[] dst, int off, int n) {
+			for(int i = off; i < off + n; i++) {
+				dst[i] = (float) (-a[i] * Math.expm1(-y[i]));
+			}
 		}
 	};
 	
 	/**
-	 * 
+	 * 1 - tanh^2(x), which equals 4 cosh^2(x) / (cosh(2x) + 1)^2, or 1 - y^2 from the output
 	 */
 	public static final Derivative Tanh = new Derivative() {
 		
 		public double d(double val) {
-			return 4 * Math.pow(Math.cosh(val), 2) / Math.pow(Math.cosh(2 * val) + 1, 2);
+			double t = Math.tanh(val);
+			return 1 - t * t;
+		}
+		
+		public void apply(double[] src, double[] dst, int off, int n) {
+			for(int i = off; i < off + n; i++) {
+				double t = Math.tanh(src[i]);
+				dst[i] = 1 - t * t;
+			}
+		}
+		
+		public void apply(float[] src, float[] dst, int off, int n) {
+			for(int i = off; i < off + n; i++) {
+				double t = Math.tanh(src[i]);
+				dst[i] = (float) (1 - t * t);
+			}
+		}
+		
+		public void pro(double[] a, double[] src, double[] dst, int off, int n) {
+			for(int i = off; i < off + n; i++) {
+				double t = Math.tanh(src[i]);
+				dst[i] = a[i] * (1 - t * t);
+			}
+		}
+		
+		public void pro(float[] a, float[] src, float[] dst, int off, int n) {
+			for(int i = off; i < off + n; i++) {
+				double t = Math.tanh(src[i]);
+				dst[i] = (float) (a[i] * (1 - t * t));
+			}
+		}
+		
+		public boolean outputForm() {
+			return true;
+		}
+		
+		public double dOut(double y) {
+			return 1 - y * y;
+		}
+		
+		public void proOut(double[] a, double[] y, double[] dst, int off, int n) {
+			for(int i = off; i < off + n; i++) {
+				dst[i] = a[i] * (1 - y[i] * y[i]);
+			}
+		}
+		
+		public void proOut(float[] a, float[] y, float[] dst, int off, int n) {
+			for(int i = off; i < off + n; i++) {
+				dst[i] = a[i] * (1 - y[i] * y[i]);
+			}
+		}
+	};
+	
+	/**
+	 * the derivative of Activation.FastTanh
+	 */
+	public static final Derivative FastTanh = new Derivative() {
+		
+		public double d(double val) {
+			double t = FastMath.tanh(val);
+			return 1 - t * t;
+		}
+		
+		public void apply(double[] src, double[] dst, int off, int n) {
+			for(int i = off; i < off + n; i++) {
+				double t = FastMath.tanh(src[i]);
+				dst[i] = 1 - t * t;
+			}
+		}
+		
+		public void apply(float[] src, float[] dst, int off, int n) {
+			for(int i = off; i < off + n; i++) {
+				float t = FastMath.tanh(src[i]);
+				dst[i] = 1 - t * t;
+			}
+		}
+		
+		public void pro(double[] a, double[] src, double[] dst, int off, int n) {
+			for(int i = off; i < off + n; i++) {
+				double t = FastMath.tanh(src[i]);
+				dst[i] = a[i] * (1 - t * t);
+			}
+		}
+		
+		public void pro(float[] a, float[] src, float[] dst, int off, int n) {
+			for(int i = off; i < off + n; i++) {
+				float t = FastMath.tanh(src[i]);
+				dst[i] = a[i] * (1 - t * t);
+			}
+		}
+		
+		public boolean outputForm() {
+			return true;
+		}
+		
+		public double dOut(double y) {
+			return 1 - y * y;
+		}
+		
+		public void proOut(double[] a, double[] y, double[] dst, int off, int n) {
+			for(int i = off; i < off + n; i++) {
+				dst[i] = a[i] * (1 - y[i] * y[i]);
+			}
+		}
+		
+		public void proOut(float[] a, float[] y, float[] dst, int off, int n) {
+			for(int i = off; i < off + n; i++) {
+				dst[i] = a[i] * (1 - y[i] * y[i]);
+			}
 		}
 	};
 	
@@ -61,4 +398,82 @@ public interface Derivative {
 	 */
 	public double d(double val);
 	
+	/**
+	 * dst[i] = d(src[i]) for the first n values
+	 */
+	public default void apply(double[] src, double[] dst, int n) {
+		apply(src, dst, 0, n);
+	}
+	
+	/**
+	 * dst[i] = d(src[i]) for the n values from the offset on
+	 */
+	public default void apply(double[] src, double[] dst, int off, int n) {
+		for(int i = off; i < off + n; i++) {
+			dst[i] = d(src[i]);
+		}
+	}
+	
+	/**
+	 * dst[i] = d(src[i]) for the n values from the offset on
+	 */
+	public default void apply(float[] src, float[] dst, int off, int n) {
+		for(int i = off; i < off + n; i++) {
+			dst[i] = (float) d(src[i]);
+		}
+	}
+	
+	/**
+	 * dst[i] = a[i] * d(src[i]) for the n values from the offset on,
+	 * the product with the derivative that back-propagation needs
+	 */
+	public default void pro(double[] a, double[] src, double[] dst, int off, int n) {
+		for(int i = off; i < off + n; i++) {
+			dst[i] = a[i] * d(src[i]);
+		}
+	}
+	
+	/**
+	 * dst[i] = a[i] * d(src[i]) for the n values from the offset on
+	 */
+	public default void pro(float[] a, float[] src, float[] dst, int off, int n) {
+		for(int i = off; i < off + n; i++) {
+			dst[i] = (float) (a[i] * d(src[i]));
+		}
+	}
+	
+	/**
+	 * whether the derivative can be calculated from the output of the activation function
+	 */
+	public default boolean outputForm() {
+		return false;
+	}
+	
+	/**
+	 * the function f'(x) calculated from the output y = f(x)
+	 */
+	public default double dOut(double y) {
+		throw new RuntimeException("The derivative can not be calculated from the output");
+	}
+	
+	/**
+	 * dst[i] = a[i] * f'(x[i]) for the n values from the offset on, calculated
+	 * from the outputs y[i] = f(x[i])
+	 */
+	public default void proOut(double[] a, double[] y, double[] dst, int off, int n) {
+		for(int i = off; i < off + n; i++) {
+			dst[i] = a[i] * dOut(y[i]);
+		}
+	}
+	
+	/**
+	 * dst[i] = a[i] * f'(x[i]) for the n values from the offset on, calculated
+	 * from the outputs y[i] = f(x[i])
+	 */
+	public default void proOut(float[] a, float[] y, float[] dst, int off, int n) {
+		for(int i = off; i < off + n; i++) {
+			dst[i] = (float) (a[i] * dOut(y[i]));
+		}
+	}
+
 }
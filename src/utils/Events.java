@@ -0,0 +1,164 @@
+package utils;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * the flight recorder events of the training, inference and loading, so that they show up next to
+ * the garbage collections, safepoints and CPU samples of a recording (java -XX:StartFlightRecording).
+ * the frequent events are only created through the methods below, which return null while the
+ * event is not recorded, as the JIT does not reliably remove the allocation of an unused event.
+ * the fields are only filled in once shouldCommit says the event will be written
+ */
+public final class Events {
+	
+	private static final EventType BATCH = EventType.getEventType(Batch.class);
+	private static final EventType BACKPROPAGATE = EventType.getEventType(Backpropagate.class);
+	private static final EventType PROCESS = EventType.getEventType(Process.class);
+	
+	private Events() {
+	}
+	
+	/**
+	 * a started batch event, or null if it is not recorded
+	 */
+	public static Batch batch() {
+		if(!BATCH.isEnabled())
+			return null;
+		Batch event = new Batch();
+		event.begin();
+		return event;
+	}
+	
+	/**
+	 * a started back-propagation event, or null if it is not recorded
+	 */
+	public static Backpropagate backpropagate() {
+		if(!BACKPROPAGATE.isEnabled())
+			return null;
+		Backpropagate event = new Backpropagate();
+		event.begin();
+		return event;
+	}
+	
+	/**
+	 * a started process event, or null if it is not recorded
+	 */
+	public static Process process() {
+		if(!PROCESS.isEnabled())
+			return null;
+		Process event = new Process();
+		event.begin();
+		return event;
+	}
+	
+	/**
+	 * the sizes of the layers as one string, like 784-16-16-10
+	 */
+	public static String shape(int[] layers) {
+		StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < layers.length; i++) {
+			sb.append(i == 0 ? "" : "-").append(layers[i]);
+		}
+		return sb.toString();
+	}
+	
+	@Name("mnist.Epoch")
+	@Label("Epoch")
+	@Category({"MNIST", "Training"})
+	@Description("One epoch of training")
+	public static class Epoch extends Event {
+		
+		@Label("Epoch")
+		public int epoch;
+		
+		@Label("Layers")
+		public String layers;
+		
+		@Label("Samples")
+		public int samples;
+		
+		@Label("Batch Size")
+		public int batches;
+		
+		@Label("Learning Rate")
+		public double rate;
+		
+		@Label("Threads")
+		@Description("The amount of asynchronous threads, 0 for the synchronous training")
+		public int threads;
+	}
+	
+	@Name("mnist.Batch")
+	@Label("Batch")
+	@Category({"MNIST", "Training"})
+	@Description("One batch of the synchronous training, from gathering the samples to updating the parameters")
+	@StackTrace(false)
+	public static class Batch extends Event {
+		
+		@Label("Epoch")
+		public int epoch;
+		
+		@Label("Batch")
+		public int batch;
+		
+		@Label("Samples")
+		public int samples;
+		
+		@Label("Layers")
+		public String layers;
+	}
+	
+	@Name("mnist.Backpropagate")
+	@Label("Backpropagate")
+	@Category({"MNIST", "Training"})
+	@Description("The gradients of a batch or a part of it")
+	@StackTrace(false)
+	public static class Backpropagate extends Event {
+		
+		@Label("Samples")
+		public int samples;
+		
+		@Label("Layers")
+		public String layers;
+	}
+	
+	@Name("mnist.Process")
+	@Label("Process")
+	@Category({"MNIST", "Inference"})
+	@Description("The outputs of the network for a batch of samples")
+	@StackTrace(false)
+	public static class Process extends Event {
+		
+		@Label("Samples")
+		public int samples;
+		
+		@Label("Layers")
+		public String layers;
+	}
+	
+	@Name("mnist.LoadImages")
+	@Label("Load Images")
+	@Category({"MNIST", "Loading"})
+	@Description("Reading the images of an idx file")
+	public static class LoadImages extends Event {
+		
+		@Label("File")
+		public String file;
+		
+		@Label("Images")
+		public int images;
+		
+		@Label("Rows")
+		public int rows;
+		
+		@Label("Columns")
+		public int columns;
+	}
+
+}
@@ -0,0 +1,31 @@
+package utils;
+
+/**
+ * faster versions of the functions of Math that the activation functions need. on HotSpot
+ * Math.exp is a compiler intrinsic while Math.tanh is not, so the hyperbolic functions are
+ * expressed through exp. measured against Math on [-40, 40] in steps of 1E-4 and at the
+ * infinities, with the bounds below
+ */
+public final class FastMath {
+
+	private FastMath() {
+	}
+
+	/**
+	 * tanh(x) = 1 - 2 / (e^2x + 1), about 8 times faster than Math.tanh. the absolute error
+	 * is below 4.5E-16 everywhere, which close to zero means a relative error of up to
+	 * 1.1E-16 / |x| (tanh(1E-10) is only correct to 6 digits). it is exactly -1 and 1 at the
+	 * infinities and NaN for NaN
+	 */
+	public static double tanh(double x) {
+		return 1 - 2 / (Math.exp(2 * x) + 1);
+	}
+
+	/**
+	 * tanh of a float, correctly rounded to float except for |x| < 1E-7
+	 */
+	public static float tanh(float x) {
+		return (float) tanh((double) x);
+	}
+
+}
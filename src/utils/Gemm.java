@@ -0,0 +1,437 @@
+package utils;
+
+import java.util.Arrays;
+
+/**
+ * cache-blocked matrix product kernels that work directly on the row-major
+ * value arrays of a Matrix. the shapes are checked once by the caller,
+ * so none of the loops in here go through get/set. every kernel exists for
+ * double and for float arrays, the latter sum in single precision as well.
+ * the fused variants start from a bias instead of zeros and hand every
+ * finished block to an epilogue, which applies the activation function
+ * or derivative before the block leaves the cache
+ */
+final class Gemm {
+
+	/**
+	 * the length of the inner dimension per block, a KC x NC block of b
+	 * (256 kB) stays in the L2 cache while every row block of a runs over it
+	 */
+	private static final int KC = 128;
+
+	/**
+	 * the amount of rows of a per block
+	 */
+	private static final int MC = 64;
+
+	/**
+	 * the amount of columns of b per block
+	 */
+	private static final int NC = 256;
+
+	private Gemm() {
+	}
+
+	/**
+	 * the work done on every block of c as soon as it is finished,
+	 * while the block is still in the cache
+	 */
+	interface Epilogue {
+
+		/**
+		 * called once for the rows from i0 to i1 and the columns from j0 to j1 (exclusive)
+		 */
+		void apply(int i0, int i1, int j0, int j1);
+	}
+
+	/**
+	 * c[m x n] = a[m x k] * b[k x n]
+	 */
+	static void nn(double[] a, double[] b, double[] c, int m, int n, int k) {
+		//a single column is a matrix-vector product of contiguous rows
+		if(n == 1) {
+			gemv(a, b, c, m, k);
+			return;
+		}
+		blocked(a, k, 1, b, n, 1, c, m, n, k, null, null);
+	}
+
+	/**
+	 * c[m x n] = a[m x k] * b[k x n] + bias[m x 1] with the bias added to every column,
+	 * every finished block of c is handed to the epilogue
+	 */
+	static void nn(double[] a, double[] b, double[] bias, double[] c, int m, int n, int k, Epilogue e) {
+		if(n == 1) {
+			gemv(a, b, c, m, k);
+			for(int i = 0; i < m; i++) {
+				c[i] += bias[i];
+			}
+			e.apply(0, m, 0, 1);
+			return;
+		}
+		blocked(a, k, 1, b, n, 1, c, m, n, k, bias, e);
+	}
+
+	/**
+	 * c[m x n] = a^T * b with a[k x m] and b[k x n]
+	 */
+	static void tn(double[] a, double[] b, double[] c, int m, int n, int k) {
+		blocked(a, 1, m, b, n, 1, c, m, n, k, null, null);
+	}
+
+	/**
+	 * c[m x n] = a^T * b with a[k x m] and b[k x n], every finished block of c is handed to the epilogue
+	 */
+	static void tn(double[] a, double[] b, double[] c, int m, int n, int k, Epilogue e) {
+		blocked(a, 1, m, b, n, 1, c, m, n, k, null, e);
+	}
+
+	/**
+	 * c[m x n] = a * b^T with a[m x k] and b[n x k]
+	 */
+	static void nt(double[] a, double[] b, double[] c, int m, int n, int k) {
+		//the outer product of two vectors needs no reduction at all
+		if(k == 1) {
+			for(int i = 0; i < m; i++) {
+				double x = a[i];
+				int c0 = i * n;
+				for(int j = 0; j < n; j++) {
+					c[c0 + j] = x * b[j];
+				}
+			}
+			return;
+		}
+		blocked(a, k, 1, b, 1, k, c, m, n, k, null, null);
+	}
+
+	/**
+	 * c[m x 1] = a[m x k] * b[k x 1]
+	 */
+	static void gemv(double[] a, double[] b, double[] c, int m, int k) {
+		for(int i = 0; i < m; i++) {
+			int r = i * k, p = 0;
+			double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+			for(; p + 3 < k; p += 4) {
+				s0 += a[r + p] * b[p];
+				s1 += a[r + p + 1] * b[p + 1];
+				s2 += a[r + p + 2] * b[p + 2];
+				s3 += a[r + p + 3] * b[p + 3];
+			}
+			for(; p < k; p++) {
+				s0 += a[r + p] * b[p];
+			}
+			c[i] = (s0 + s1) + (s2 + s3);
+		}
+	}
+
+	/**
+	 * the common tiled loop nest. the entry (i, p) of a is stored at
+	 * a[i * ai + p * ap] and the entry (p, j) of b at b[p * bp + j * bj],
+	 * which is what tells the plain and the transposed variants apart
+	 */
+	private static void blocked(double[] a, int ai, int ap, double[] b, int bp, int bj, double[] c, int m, int n, int k, double[] bias, Epilogue e) {
+		if(bias == null) {
+			Arrays.fill(c, 0, m * n, 0);
+		} else {
+			for(int i = 0; i < m; i++) {
+				Arrays.fill(c, i * n, i * n + n, bias[i]);
+			}
+		}
+		if(e != null && k == 0)
+			e.apply(0, m, 0, n);
+
+		for(int pp = 0; pp < k; pp += KC) {
+			int pk = Math.min(pp + KC, k);
+			for(int jj = 0; jj < n; jj += NC) {
+				int jn = Math.min(jj + NC, n);
+				for(int ii = 0; ii < m; ii += MC) {
+					int in = Math.min(ii + MC, m);
+					int i = ii;
+					for(; i + 3 < in; i += 4) {
+						int j = jj;
+						for(; j + 3 < jn; j += 4) {
+							kernel(a, ai, ap, b, bp, bj, c, n, i, j, pp, pk);
+						}
+						for(; j < jn; j++) {
+							edge(a, ai, ap, b, bp, bj, c, n, i, i + 4, j, pp, pk);
+						}
+					}
+					for(int j = jj; i < in && j < jn; j++) {
+						edge(a, ai, ap, b, bp, bj, c, n, i, in, j, pp, pk);
+					}
+					//the block is finished after the last part of the inner dimension
+					if(e != null && pk == k)
+						e.apply(ii, in, jj, jn);
+				}
+			}
+		}
+	}
+
+	/**
+	 * the register-blocked micro-kernel, adds the 4 x 4 tile of c at (i, j)
+	 * for the inner dimension from pp to pk with all 16 sums kept in registers
+	 */
+	private static void kernel(double[] a, int ai, int ap, double[] b, int bp, int bj, double[] c, int n, int i, int j, int pp, int pk) {
+		double s00 = 0, s01 = 0, s02 = 0, s03 = 0;
+		double s10 = 0, s11 = 0, s12 = 0, s13 = 0;
+		double s20 = 0, s21 = 0, s22 = 0, s23 = 0;
+		double s30 = 0, s31 = 0, s32 = 0, s33 = 0;
+		int a0 = i * ai, a1 = a0 + ai, a2 = a1 + ai, a3 = a2 + ai;
+		int b0 = j * bj, b1 = b0 + bj, b2 = b1 + bj, b3 = b2 + bj;
+
+		for(int p = pp; p < pk; p++) {
+			int x = p * ap, y = p * bp;
+			double y0 = b[b0 + y], y1 = b[b1 + y], y2 = b[b2 + y], y3 = b[b3 + y];
+			double x0 = a[a0 + x];
+			s00 += x0 * y0;
+			s01 += x0 * y1;
+			s02 += x0 * y2;
+			s03 += x0 * y3;
+			double x1 = a[a1 + x];
+			s10 += x1 * y0;
+			s11 += x1 * y1;
+			s12 += x1 * y2;
+			s13 += x1 * y3;
+			double x2 = a[a2 + x];
+			s20 += x2 * y0;
+			s21 += x2 * y1;
+			s22 += x2 * y2;
+			s23 += x2 * y3;
+			double x3 = a[a3 + x];
+			s30 += x3 * y0;
+			s31 += x3 * y1;
+			s32 += x3 * y2;
+			s33 += x3 * y3;
+		}
+		int r = i * n + j;
+		c[r] += s00;
+		c[r + 1] += s01;
+		c[r + 2] += s02;
+		c[r + 3] += s03;
+		r += n;
+		c[r] += s10;
+		c[r + 1] += s11;
+		c[r + 2] += s12;
+		c[r + 3] += s13;
+		r += n;
+		c[r] += s20;
+		c[r + 1] += s21;
+		c[r + 2] += s22;
+		c[r + 3] += s23;
+		r += n;
+		c[r] += s30;
+		c[r + 1] += s31;
+		c[r + 2] += s32;
+		c[r + 3] += s33;
+	}
+
+	/**
+	 * adds the single column j of c for the rows from i to in,
+	 * used for the edges that do not fill a whole 4 x 4 tile
+	 */
+	private static void edge(double[] a, int ai, int ap, double[] b, int bp, int bj, double[] c, int n, int i, int in, int j, int pp, int pk) {
+		for(; i < in; i++) {
+			double sum = 0;
+			for(int p = pp; p < pk; p++) {
+				sum += a[i * ai + p * ap] * b[p * bp + j * bj];
+			}
+			c[i * n + j] += sum;
+		}
+	}
+
+	/**
+	 * c[m x n] = a[m x k] * b[k x n] in single precision
+	 */
+	static void nn(float[] a, float[] b, float[] c, int m, int n, int k) {
+		//a single column is a matrix-vector product of contiguous rows
+		if(n == 1) {
+			gemv(a, b, c, m, k);
+			return;
+		}
+		blocked(a, k, 1, b, n, 1, c, m, n, k, null, null);
+	}
+
+	/**
+	 * c[m x n] = a[m x k] * b[k x n] + bias[m x 1] with the bias added to every column,
+	 * every finished block of c is handed to the epilogue
+	 */
+	static void nn(float[] a, float[] b, float[] bias, float[] c, int m, int n, int k, Epilogue e) {
+		if(n == 1) {
+			gemv(a, b, c, m, k);
+			for(int i = 0; i < m; i++) {
+				c[i] += bias[i];
+			}
+			e.apply(0, m, 0, 1);
+			return;
+		}
+		blocked(a, k, 1, b, n, 1, c, m, n, k, bias, e);
+	}
+
+	/**
+	 * c[m x n] = a^T * b with a[k x m] and b[k x n]
+	 */
+	static void tn(float[] a, float[] b, float[] c, int m, int n, int k) {
+		blocked(a, 1, m, b, n, 1, c, m, n, k, null, null);
+	}
+
+	/**
+	 * c[m x n] = a^T * b with a[k x m] and b[k x n], every finished block of c is handed to the epilogue
+	 */
+	static void tn(float[] a, float[] b, float[] c, int m, int n, int k, Epilogue e) {
+		blocked(a, 1, m, b, n, 1, c, m, n, k, null, e);
+	}
+
+	/**
+	 * c[m x n] = a * b^T with a[m x k] and b[n x k]
+	 */
+	static void nt(float[] a, float[] b, float[] c, int m, int n, int k) {
+		//the outer product of two vectors needs no reduction at all
+		if(k == 1) {
+			for(int i = 0; i < m; i++) {
+				float x = a[i];
+				int c0 = i * n;
+				for(int j = 0; j < n; j++) {
+					c[c0 + j] = x * b[j];
+				}
+			}
+			return;
+		}
+		blocked(a, k, 1, b, 1, k, c, m, n, k, null, null);
+	}
+
+	/**
+	 * c[m x 1] = a[m x k] * b[k x 1]
+	 */
+	static void gemv(float[] a, float[] b, float[] c, int m, int k) {
+		for(int i = 0; i < m; i++) {
+			int r = i * k, p = 0;
+			float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+			for(; p + 3 < k; p += 4) {
+				s0 += a[r + p] * b[p];
+				s1 += a[r + p + 1] * b[p + 1];
+				s2 += a[r + p + 2] * b[p + 2];
+				s3 += a[r + p + 3] * b[p + 3];
+			}
+			for(; p < k; p++) {
+				s0 += a[r + p] * b[p];
+			}
+			c[i] = (s0 + s1) + (s2 + s3);
+		}
+	}
+
+	/**
+	 * the common tiled loop nest. the entry (i, p) of a is stored at
+	 * a[i * ai + p * ap] and the entry (p, j) of b at b[p * bp + j * bj],
+	 * which is what tells the plain and the transposed variants apart
+	 */
+	private static void blocked(float[] a, int ai, int ap, float[] b, int bp, int bj, float[] c, int m, int n, int k, float[] bias, Epilogue e) {
+		if(bias == null) {
+			Arrays.fill(c, 0, m * n, 0);
+		} else {
+			for(int i = 0; i < m; i++) {
+				Arrays.fill(c, i * n, i * n + n, bias[i]);
+			}
+		}
+		if(e != null && k == 0)
+			e.apply(0, m, 0, n);
+
+		for(int pp = 0; pp < k; pp += KC) {
+			int pk = Math.min(pp + KC, k);
+			for(int jj = 0; jj < n; jj += NC) {
+				int jn = Math.min(jj + NC, n);
+				for(int ii = 0; ii < m; ii += MC) {
+					int in = Math.min(ii + MC, m);
+					int i = ii;
+					for(; i + 3 < in; i += 4) {
+						int j = jj;
+						for(; j + 3 < jn; j += 4) {
+							kernel(a, ai, ap, b, bp, bj, c, n, i, j, pp, pk);
+						}
+						for(; j < jn; j++) {
+							edge(a, ai, ap, b, bp, bj, c, n, i, i + 4, j, pp, pk);
+						}
+					}
+					for(int j = jj; i < in && j < jn; j++) {
+						edge(a, ai, ap, b, bp, bj, c, n, i, in, j, pp, pk);
+					}
+					//the block is finished after the last part of the inner dimension
+					if(e != null && pk == k)
+						e.apply(ii, in, jj, jn);
+				}
+			}
+		}
+	}
+
+	/**
+	 * the register-blocked micro-kernel, adds the 4 x 4 tile of c at (i, j)
+	 * for the inner dimension from pp to pk with all 16 sums kept in registers
+	 */
+	private static void kernel(float[] a, int ai, int ap, float[] b, int bp, int bj, float[] c, int n, int i, int j, int pp, int pk) {
+		float s00 = 0, s01 = 0, s02 = 0, s03 = 0;
+		float s10 = 0, s11 = 0, s12 = 0, s13 = 0;
+		float s20 = 0, s21 = 0, s22 = 0, s23 = 0;
+		float s30 = 0, s31 = 0, s32 = 0, s33 = 0;
+		int a0 = i * ai, a1 = a0 + ai, a2 = a1 + ai, a3 = a2 + ai;
+		int b0 = j * bj, b1 = b0 + bj, b2 = b1 + bj, b3 = b2 + bj;
+
+		for(int p = pp; p < pk; p++) {
+			int x = p * ap, y = p * bp;
+			float y0 = b[b0 + y], y1 = b[b1 + y], y2 = b[b2 + y], y3 = b[b3 + y];
+			float x0 = a[a0 + x];
+			s00 += x0 * y0;
+			s01 += x0 * y1;
+			s02 += x0 * y2;
+			s03 += x0 * y3;
+			float x1 = a[a1 + x];
+			s10 += x1 * y0;
+			s11 += x1 * y1;
+			s12 += x1 * y2;
+			s13 += x1 * y3;
+			float x2 = a[a2 + x];
+			s20 += x2 * y0;
+			s21 += x2 * y1;
+			s22 += x2 * y2;
+			s23 += x2 * y3;
+			float x3 = a[a3 + x];
+			s30 += x3 * y0;
+			s31 += x3 * y1;
+			s32 += x3 * y2;
+			s33 += x3 * y3;
+		}
+		int r = i * n + j;
+		c[r] += s00;
+		c[r + 1] += s01;
+		c[r + 2] += s02;
+		c[r + 3] += s03;
+		r += n;
+		c[r] += s10;
+		c[r + 1] += s11;
+		c[r + 2] += s12;
+		c[r + 3] += s13;
+		r += n;
+		c[r] += s20;
+		c[r + 1] += s21;
+		c[r + 2] += s22;
+		c[r + 3] += s23;
+		r += n;
+		c[r] += s30;
+		c[r + 1] += s31;
+		c[r + 2] += s32;
+		c[r + 3] += s33;
+	}
+
+	/**
+	 * adds the single column j of c for the rows from i to in,
+	 * used for the edges that do not fill a whole 4 x 4 tile
+	 */
+	private static void edge(float[] a, int ai, int ap, float[] b, int bp, int bj, float[] c, int n, int i, int in, int j, int pp, int pk) {
+		for(; i < in; i++) {
+			float sum = 0;
+			for(int p = pp; p < pk; p++) {
+				sum += a[i * ai + p * ap] * b[p * bp + j * bj];
+			}
+			c[i * n + j] += sum;
+		}
+	}
+
+}
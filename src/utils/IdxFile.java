@@ -0,0 +1,140 @@
+package utils;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * a zero-copy view over a memory-mapped IDX file of unsigned bytes, like the MNIST
+ * image and label files. the file is never copied onto the heap, every sample is
+ * decoded straight from the mapped pages into a buffer of the caller.
+ *
+ * the layout is a magic number (two zero bytes, the data type and the amount
+ * of dimensions), one big-endian int per dimension and then the data itself
+ */
+public class IdxFile {
+
+	/**
+	 * the data type of unsigned bytes, the only one MNIST uses
+	 */
+	public static final int UNSIGNED_BYTE = 0x08;
+
+	private final ByteBuffer data;
+	private final int[] dimensions;
+	private final int size;
+
+	private IdxFile(ByteBuffer bb) {
+		int magic = bb.getInt();
+		if((magic >>> 16) != 0 || ((magic >>> 8) & 0xFF) != UNSIGNED_BYTE)
+			throw new RuntimeException(String.format("Not an IDX file of unsigned bytes, found magic number %d", magic));
+
+		dimensions = new int[magic & 0xFF];
+		int size = 1;
+		for(int i = 0; i < dimensions.length; i++) {
+			dimensions[i] = bb.getInt();
+			if(i > 0)
+				size *= dimensions[i];
+		}
+		this.size = size;
+
+		if(dimensions.length == 0 || bb.remaining() < (long) dimensions[0] * size)
+			throw new RuntimeException("The IDX file is truncated");
+		this.data = bb.slice();
+	}
+
+	/**
+	 * maps the whole file read-only into memory, the mapping stays valid after the file is closed
+	 */
+	public static IdxFile map(String infile) {
+		try(RandomAccessFile f = new RandomAccessFile(infile, "r"); FileChannel chan = f.getChannel()) {
+			return new IdxFile(chan.map(FileChannel.MapMode.READ_ONLY, 0, chan.size()));
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * the magic number of the file, 2049 for labels and 2051 for images
+	 */
+	public int getMagicNumber() {
+		return UNSIGNED_BYTE << 8 | dimensions.length;
+	}
+
+	/**
+	 * the amount of samples (the first dimension)
+	 */
+	public int getCount() {
+		return dimensions[0];
+	}
+
+	/**
+	 * the size of the given dimension, 1 for the rows and 2 for the columns of an image
+	 */
+	public int getDimension(int i) {
+		return i < dimensions.length ? dimensions[i] : 1;
+	}
+
+	/**
+	 * the amount of values per sample, 784 for an MNIST image and 1 for a label
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * the first value of the given sample as an unsigned number, which is the label of a label file
+	 */
+	public int get(int i) {
+		return data.get(i * size) & 0xFF;
+	}
+
+	/**
+	 * the unsigned value at the given position of the given sample
+	 */
+	public int get(int i, int p) {
+		return data.get(i * size + p) & 0xFF;
+	}
+
+	/**
+	 * a read-only view of the raw bytes of all samples one after another without copying them
+	 */
+	public ByteBuffer view() {
+		return data.asReadOnlyBuffer();
+	}
+
+	/**
+	 * a read-only view of the raw bytes of the given sample without copying them
+	 */
+	public ByteBuffer view(int i) {
+		return data.slice(i * size, size).asReadOnlyBuffer();
+	}
+
+	/**
+	 * copies the raw bytes of the given sample into dst from the offset on
+	 */
+	public void read(int i, byte[] dst, int off) {
+		data.get(i * size, dst, off, size);
+	}
+
+	/**
+	 * decodes the given sample into dst from the offset on, every value scaled by the given factor
+	 */
+	public void read(int i, double[] dst, int off, double scale) {
+		int p = i * size;
+		for(int j = 0; j < size; j++) {
+			dst[off + j] = (data.get(p + j) & 0xFF) * scale;
+		}
+	}
+
+	/**
+	 * decodes the given sample into dst from the offset on, every value scaled by the given factor
+	 */
+	public void read(int i, float[] dst, int off, float scale) {
+		int p = i * size;
+		for(int j = 0; j < size; j++) {
+			dst[off + j] = (data.get(p + j) & 0xFF) * scale;
+		}
+	}
+
+}
@@ -0,0 +1,214 @@
+package utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * a compact dataset of images with one unsigned byte per pixel in one contiguous block
+ * and one byte per label. the pixels are only normalised to [0, 1] and the labels only
+ * expanded to one-hot vectors when a batch is gathered, so the 60000 MNIST training
+ * images take about 47 MB instead of a matrix of doubles per image. the images loaded onto
+ * the heap also keep the positions of their nonzero pixels, so that a batch can be gathered
+ * as sparse batch without looking at the background pixels (most of the pixels of a digit)
+ */
+public class ImageSet implements Dataset {
+	
+	private final ByteBuffer pixels;
+	private final byte[] labels;
+	private final int features, classes;
+	
+	/**
+	 * the positions of the nonzero pixels of every image, those of image i from offsets[i]
+	 * to offsets[i + 1] - 1, or null if the images are mapped or too large for a char
+	 */
+	private final int[] offsets;
+	private final char[] positions;
+	
+	private ImageSet(ByteBuffer pixels, byte[] labels, int features, int classes, int[] offsets, char[] positions) {
+		this.pixels = pixels;
+		this.labels = labels;
+		this.features = features;
+		this.classes = classes;
+		this.offsets = offsets;
+		this.positions = positions;
+	}
+	
+	/**
+	 * copies the images and labels of the given IDX files into one array each,
+	 * with as many classes as the largest label needs
+	 */
+	public static ImageSet load(String images, String labels) {
+		return load(images, labels, 0);
+	}
+	
+	/**
+	 * copies the images and labels into one array each, with the given amount of classes
+	 * (so that a part of a dataset that lacks the last labels still fits a network)
+	 */
+	public static ImageSet load(String images, String labels, int classes) {
+		Events.LoadImages event = new Events.LoadImages();
+		event.begin();
+		IdxFile img = IdxFile.map(images);
+		byte[] pixels = new byte[img.getCount() * img.getSize()];
+		
+		for(int i = 0; i < img.getCount(); i++) {
+			img.read(i, pixels, i * img.getSize());
+		}
+		if(event.shouldCommit()) {
+			event.file = images;
+			event.images = img.getCount();
+			event.rows = img.getDimension(1);
+			event.columns = img.getDimension(2);
+			event.commit();
+		}
+		int[] offsets = null;
+		char[] positions = null;
+		if(img.getSize() <= Character.MAX_VALUE + 1) {
+			//counts the nonzero pixels first so that their positions fit into one array
+			int nonzero = 0;
+			for(int i = 0; i < pixels.length; i++) {
+				if(pixels[i] != 0)
+					nonzero++;
+			}
+			offsets = new int[img.getCount() + 1];
+			positions = new char[nonzero];
+			int k = 0;
+			for(int i = 0; i < img.getCount(); i++) {
+				int base = i * img.getSize();
+				for(int p = 0; p < img.getSize(); p++) {
+					if(pixels[base + p] != 0)
+						positions[k++] = (char) p;
+				}
+				offsets[i + 1] = k;
+			}
+		}
+		return create(img, ByteBuffer.wrap(pixels), IdxFile.map(labels), classes, offsets, positions);
+	}
+	
+	/**
+	 * keeps the images in the memory-mapped file instead of the heap,
+	 * so that datasets larger than the heap can be trained on
+	 */
+	public static ImageSet map(String images, String labels) {
+		return map(images, labels, 0);
+	}
+	
+	/**
+	 * maps the images with the given amount of classes
+	 */
+	public static ImageSet map(String images, String labels, int classes) {
+		IdxFile img = IdxFile.map(images);
+		return create(img, img.view(), IdxFile.map(labels), classes, null, null);
+	}
+	
+	/**
+	 * the dataset of the images and labels, with as many classes as the labels need if classes is 0
+	 */
+	private static ImageSet create(IdxFile img, ByteBuffer pixels, IdxFile lbl, int classes, int[] offsets, char[] positions) {
+		MNIST.assertMagicNumber(MNIST.IMAGE_FILE_MAGIC_NUMBER, img.getMagicNumber());
+		MNIST.assertMagicNumber(MNIST.LABEL_FILE_MAGIC_NUMBER, lbl.getMagicNumber());
+		if(img.getCount() != lbl.getCount())
+			throw new RuntimeException("The amount of images and labels differs");
+		
+		byte[] labels = new byte[lbl.getCount()];
+		int needed = 0;
+		for(int i = 0; i < labels.length; i++) {
+			labels[i] = (byte) lbl.get(i);
+			needed = Math.max(needed, lbl.get(i) + 1);
+		}
+		if(classes > 0 && needed > classes)
+			throw new RuntimeException("The labels exceed the amount of classes");
+		return new ImageSet(pixels, labels, img.getSize(), classes > 0 ? classes : needed, offsets, positions);
+	}
+	
+	public int size() {
+		return labels.length;
+	}
+	
+	public int features() {
+		return features;
+	}
+	
+	public int classes() {
+		return classes;
+	}
+	
+	public int label(int i) {
+		return labels[i] & 0xFF;
+	}
+	
+	/**
+	 * the unsigned value of the given pixel of the given image
+	 */
+	public int pixel(int i, int p) {
+		return pixels.get(i * features + p) & 0xFF;
+	}
+	
+	public void gather(int[] order, int from, int to, Matrix in, Matrix out) {
+		int cols = to - from;
+		if(in.getRows() != features || in.getColumns() != cols || out != null && (out.getRows() != classes || out.getColumns() != cols))
+			throw new RuntimeException("Matrix size mismatch");
+		
+		double[] values = in.getValues();
+		float[] floats = in.getFloats();
+		if(out != null)
+			out.clear();
+		
+		for(int j = 0; j < cols; j++) {
+			int s = order == null ? from + j : order[from + j];
+			int base = s * features;
+			
+			//normalises the pixels of the sample into column j
+			if(values != null) {
+				for(int p = 0; p < features; p++) {
+					values[p * cols + j] = (pixels.get(base + p) & 0xFF) / 255d;
+				}
+			} else if(floats != null) {
+				for(int p = 0; p < features; p++) {
+					floats[p * cols + j] = (pixels.get(base + p) & 0xFF) / 255f;
+				}
+			} else {
+				for(int p = 0; p < features; p++) {
+					in.set(p, j, (pixels.get(base + p) & 0xFF) / 255d);
+				}
+			}
+			//the expected output is the one-hot vector of the label
+			if(out != null)
+				out.set(labels[s] & 0xFF, j, 1);
+		}
+	}
+	
+	public boolean sparse() {
+		return offsets != null;
+	}
+	
+	public void gather(int[] order, int from, int to, SparseBatch in, Matrix out) {
+		int cols = to - from;
+		if(offsets == null)
+			throw new RuntimeException("The dataset has no sparse inputs");
+		if(in.getRows() != features || in.getColumns() != cols || out != null && (out.getRows() != classes || out.getColumns() != cols))
+			throw new RuntimeException("Matrix size mismatch");
+		
+		boolean floats = in.getPrecision() == Precision.SINGLE;
+		in.clear();
+		if(out != null)
+			out.clear();
+		
+		for(int j = 0; j < cols; j++) {
+			int s = order == null ? from + j : order[from + j];
+			int base = s * features;
+			
+			//normalises only the nonzero pixels of the sample into column j
+			for(int k = offsets[s]; k < offsets[s + 1]; k++) {
+				int p = positions[k];
+				if(floats)
+					in.add(p, (pixels.get(base + p) & 0xFF) / 255f);
+				else
+					in.add(p, (pixels.get(base + p) & 0xFF) / 255d);
+			}
+			in.next();
+			if(out != null)
+				out.set(labels[s] & 0xFF, j, 1);
+		}
+	}
+	
+}
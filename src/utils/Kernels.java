@@ -0,0 +1,102 @@
+package utils;
+
+/**
+ * the loops over the backing arrays of matrices that the element-wise operations and
+ * reductions run on. the implementation is selected once at startup: the SIMD loops of
+ * VectorKernels if they were compiled and the jdk.incubator.vector module was added
+ * (java --add-modules jdk.incubator.vector), plain scalar loops otherwise. setting the
+ * system property mnist.kernels to scalar always selects the scalar loops.
+ *
+ * every operation works on the first n elements of its arrays (or the n elements from
+ * the offset on), and the destination may be one of the sources
+ */
+public abstract class Kernels {
+
+	private static final Kernels SCALAR = new ScalarKernels();
+	private static final Kernels SELECTED = select();
+
+	Kernels() {
+	}
+
+	/**
+	 * the kernels selected at startup
+	 */
+	public static Kernels get() {
+		return SELECTED;
+	}
+
+	/**
+	 * the scalar kernels, which the SIMD ones have to agree with
+	 */
+	public static Kernels scalar() {
+		return SCALAR;
+	}
+
+	private static Kernels select() {
+		if("scalar".equals(System.getProperty("mnist.kernels")))
+			return SCALAR;
+		try {
+			return (Kernels) Class.forName("utils.VectorKernels").getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError e) {
+			//the SIMD kernels were not compiled or the module is missing at runtime
+			return SCALAR;
+		}
+	}
+
+	public abstract String getName();
+
+	/**
+	 * dst[i] = a[i] + b[i]
+	 */
+	public abstract void add(double[] a, double[] b, double[] dst, int n);
+	public abstract void add(float[] a, float[] b, float[] dst, int n);
+
+	/**
+	 * dst[i] = a[i] - b[i]
+	 */
+	public abstract void sub(double[] a, double[] b, double[] dst, int n);
+	public abstract void sub(float[] a, float[] b, float[] dst, int n);
+
+	/**
+	 * dst[i] = a[i] * b[i]
+	 */
+	public abstract void mul(double[] a, double[] b, double[] dst, int n);
+	public abstract void mul(float[] a, float[] b, float[] dst, int n);
+
+	/**
+	 * dst[i] = a[i] / b[i]
+	 */
+	public abstract void div(double[] a, double[] b, double[] dst, int n);
+	public abstract void div(float[] a, float[] b, float[] dst, int n);
+
+	/**
+	 * dst[i] = s * a[i]
+	 */
+	public abstract void scale(double[] a, double s, double[] dst, int n);
+	public abstract void scale(float[] a, float s, float[] dst, int n);
+
+	/**
+	 * dst[off + i] = a[off + i] + s
+	 */
+	public abstract void shift(double[] a, int off, double s, double[] dst, int n);
+	public abstract void shift(float[] a, int off, float s, float[] dst, int n);
+
+	/**
+	 * dst[i] = v
+	 */
+	public abstract void fill(double[] dst, double v, int n);
+	public abstract void fill(float[] dst, float v, int n);
+
+	/**
+	 * the sum of a[off + i]
+	 */
+	public abstract double sum(double[] a, int off, int n);
+	public abstract double sum(float[] a, int off, int n);
+
+	/**
+	 * the sum of a[aoff + i] * b[boff + i]
+	 */
+	public abstract double dot(double[] a, int aoff, double[] b, int boff, int n);
+	public abstract double dot(float[] a, int aoff, float[] b, int boff, int n);
+
+}
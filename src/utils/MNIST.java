@@ -1,9 +1,7 @@
 package utils;
 
-import java.io.ByteArrayOutputStream;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
@@ -31,15 +29,15 @@ public class MNIST {
 	
 	public static int[] getLabels(String infile) {
 
-		ByteBuffer bb = loadFileToByteBuffer(infile);
+		IdxFile idx = IdxFile.map(infile);
 
-		assertMagicNumber(LABEL_FILE_MAGIC_NUMBER, bb.getInt());
+		assertMagicNumber(LABEL_FILE_MAGIC_NUMBER, idx.getMagicNumber());
 
-		int numLabels = bb.getInt();
+		int numLabels = idx.getCount();
 		int[] labels = new int[numLabels];
 
 		for(int i = 0; i < numLabels; i++) {
-			labels[i] = bb.get() & 0xFF;
+			labels[i] = idx.get(i);
 		}
 
 		System.out.println("loaded the labels from " + infile);
@@ -47,17 +45,26 @@ public class MNIST {
 	}
 
 	public static ArrayList<int[][]> getImages(String infile) {
-		ByteBuffer bb = loadFileToByteBuffer(infile);
+		Events.LoadImages event = new Events.LoadImages();
+		event.begin();
+		IdxFile idx = IdxFile.map(infile);
 
-		assertMagicNumber(IMAGE_FILE_MAGIC_NUMBER, bb.getInt());
+		assertMagicNumber(IMAGE_FILE_MAGIC_NUMBER, idx.getMagicNumber());
 
-		int numImages = bb.getInt();
-		int numRows = bb.getInt();
-		int numColumns = bb.getInt();
-		List<int[][]> images = new ArrayList<int[][]>();
+		int numImages = idx.getCount();
+		int numRows = idx.getDimension(1);
+		int numColumns = idx.getDimension(2);
+		List<int[][]> images = new ArrayList<int[][]>(numImages);
 
 		for(int i = 0; i < numImages; i++) {
-			images.add(readImage(numRows, numColumns, bb));
+			images.add(readImage(numRows, numColumns, idx.view(i)));
+		}
+		if(event.shouldCommit()) {
+			event.file = infile;
+			event.images = numImages;
+			event.rows = numRows;
+			event.columns = numColumns;
+			event.commit();
 		}
 
 		System.out.println("loaded the images from " + infile);
@@ -77,6 +84,16 @@ public class MNIST {
 		}
 	}
 
+	public static void shuffle(int[] order) {
+		Random r = new Random();
+		for (int i = order.length - 1; i > 0; i--) {
+			int rVal = r.nextInt(i + 1);
+			int temp = order[i];
+			order[i] = order[rVal];
+			order[rVal] = temp;
+		}
+	}
+
 	private static int[][] readImage(int numRows, int numCols, ByteBuffer bb) {
 		int[][] image = new int[numRows][];
 		for (int row = 0; row < numRows; row++)
@@ -114,19 +131,10 @@ public class MNIST {
 	}
 
 	public static byte[] loadFile(String infile) {
-		try {
-			RandomAccessFile f = new RandomAccessFile(infile, "r");
-			FileChannel chan = f.getChannel();
-			long fileSize = chan.size();
-			ByteBuffer bb = ByteBuffer.allocate((int) fileSize);
-			chan.read(bb);
-			bb.flip();
-			ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			for (int i = 0; i < fileSize; i++)
-				baos.write(bb.get());
-			chan.close();
-			f.close();
-			return baos.toByteArray();
+		try(RandomAccessFile f = new RandomAccessFile(infile, "r")) {
+			byte[] bytes = new byte[(int) f.length()];
+			f.readFully(bytes);
+			return bytes;
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
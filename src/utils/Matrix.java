@@ -1,10 +1,25 @@
 package utils;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+
 public class Matrix {
 	
 	private double[] values;
+	private float[] floats;
 	private int rows, cols;
 	
+	// The storage of a matrix off the heap instead of the arrays, see Matrix(ByteBuffer, ...)
+	private DoubleBuffer buffer;
+	private FloatBuffer floatBuffer;
+	
+	// The amount of rows of off-heap weights that are multiplied at once (the row blocks of Gemm) and
+	// the arrays every thread copies them into, see denseOffHeap
+	private static final int OFF_HEAP_ROWS = 64;
+	private static final ThreadLocal<Matrix[]> OFF_HEAP_SCRATCH = ThreadLocal.withInitial(() -> new Matrix[4]);
+	
 
 	public Matrix(double[] values, int rows, int cols) {
 		if (values.length != rows * cols)
@@ -15,12 +30,49 @@ public class Matrix {
 		this.cols = cols;
 	}
 	
+	public Matrix(float[] values, int rows, int cols) {
+		if (values.length != rows * cols)
+			throw new RuntimeException("Invalid array size. Must be of size numRows * numColumns");
+		
+		this.floats = values;
+		this.rows = rows;
+		this.cols = cols;
+	}
+	
 	public Matrix(int rows, int cols) { // Create an empty matrix
 		this.rows = rows;
 		this.cols = cols;
 		values = new double[rows * cols];
 	}
 	
+	public Matrix(int rows, int cols, Precision precision) { // Create an empty matrix of the given precision
+		this.rows = rows;
+		this.cols = cols;
+		if(precision == Precision.SINGLE)
+			floats = new float[rows * cols];
+		else
+			values = new double[rows * cols];
+	}
+	
+	// A matrix stored row by row in the given memory from its position on, like a direct buffer of an Arena
+	// or a mapped file, without copying it. the values are read in the native byte order and have to be
+	// aligned to their size. the matrix is read-only if the memory is
+	public Matrix(ByteBuffer memory, int rows, int cols, Precision precision) {
+		int size = precision == Precision.SINGLE ? Float.BYTES : Double.BYTES;
+		if(memory.remaining() < (long) rows * cols * size)
+			throw new RuntimeException("Invalid buffer size. Must hold numRows * numColumns values");
+		if(memory.isDirect() && memory.alignmentOffset(memory.position(), size) != 0)
+			throw new RuntimeException("The buffer is not aligned to the size of its values");
+		
+		ByteBuffer slice = memory.slice(memory.position(), rows * cols * size).order(ByteOrder.nativeOrder());
+		if(precision == Precision.SINGLE)
+			floatBuffer = slice.asFloatBuffer();
+		else
+			buffer = slice.asDoubleBuffer();
+		this.rows = rows;
+		this.cols = cols;
+	}
+	
 	public int getRows() {
 		return rows;
 	}
@@ -29,40 +81,119 @@ public class Matrix {
 		return cols;
 	}
 	
+	public Precision getPrecision() {
+		return floats != null || floatBuffer != null ? Precision.SINGLE : Precision.DOUBLE;
+	}
+	
+	// Whether the matrix is stored off the heap, in which case there are no backing arrays
+	public boolean isOffHeap() {
+		return buffer != null || floatBuffer != null;
+	}
+	
+	// The off-heap storage of a double precision matrix, null on the heap and for single precision
+	public DoubleBuffer getDoubleBuffer() {
+		return buffer;
+	}
+	
+	// The off-heap storage of a single precision matrix, null on the heap and for double precision
+	public FloatBuffer getFloatBuffer() {
+		return floatBuffer;
+	}
+	
+	// Detaches the off-heap storage when its arena is closed, so that using the matrix fails. the memory itself
+	// is only freed by the garbage collector once no buffer refers to it anymore
+	void detach() {
+		buffer = null;
+		floatBuffer = null;
+	}
+	
+	// The backing array of a double precision matrix, null for single precision
 	public double[] getValues() {
 		return values;
 	}
 	
+	// The backing array of a single precision matrix, null for double precision
+	public float[] getFloats() {
+		return floats;
+	}
+	
+	// This matrix if it already has the given precision, a converted copy otherwise
+	public Matrix to(Precision precision) {
+		if(precision == getPrecision())
+			return this;
+		
+		Matrix converted = new Matrix(rows, cols, precision);
+		for(int i = 0; i < rows * cols; i++) {
+			if(floats != null)
+				converted.values[i] = floats[i];
+			else if(values != null)
+				converted.floats[i] = (float) values[i];
+			else
+				converted.set(i / cols, i % cols, get(i / cols, i % cols));
+		}
+		return converted;
+	}
+	
+	// A copy of this matrix on the heap
+	public Matrix copy() {
+		if(floats != null)
+			return new Matrix(floats.clone(), rows, cols);
+		if(values != null)
+			return new Matrix(values.clone(), rows, cols);
+		
+		Matrix copy = new Matrix(rows, cols, getPrecision());
+		if(floatBuffer != null)
+			floatBuffer.get(0, copy.floats);
+		else
+			buffer.get(0, copy.values);
+		return copy;
+	}
+	
 	public boolean withinRange(int row, int column) {
 		return row < rows && row >= 0 && column < cols && column >= 0;
 	}
 	
 	public void set(int row, int column, double value) {
-		if(withinRange(row, column))
+		if(!withinRange(row, column))
+			throw new RuntimeException("Out of matrix bound");
+		else if(floats != null)
+			floats[row * cols + column] = (float) value;
+		else if(values != null)
 			values[row * cols + column] = value;
+		else if(floatBuffer != null)
+			floatBuffer.put(row * cols + column, (float) value);
 		else
-			throw new RuntimeException("Out of matrix bound");
+			buffer.put(row * cols + column, value);
 	}
 	
 	public double get(int row, int column) {
-		if(withinRange(row, column))
+		if(!withinRange(row, column))
+			throw new RuntimeException("Out of matrix bound");
+		else if(floats != null)
+			return floats[row * cols + column];
+		else if(values != null)
 			return values[row * cols + column];
+		else if(floatBuffer != null)
+			return floatBuffer.get(row * cols + column);
 		else
-			throw new RuntimeException("Out of matrix bound");
+			return buffer.get(row * cols + column);
 	}
 	
 	public void clear() {
-		for(int i = 0; i < rows; i++) {
-			for(int j = 0; j < cols; j++) {
-				set(i, j, 0);
-			}
-		}
+		fill(0);
 	}
 	
 	public void fill(double a){
-		for(int i = 0; i < rows; i++) {
-			for(int j = 0; j < cols; j++) {
-				set(i, j, a);
+		if(floats != null) {
+			Kernels.get().fill(floats, (float) a, floats.length);
+		} else if(values != null) {
+			Kernels.get().fill(values, a, values.length);
+		} else {
+			for(int i = 0; i < rows * cols; i++) {
+				if(floatBuffer != null)
+					floatBuffer.put(i, (float) a);
+				else
+					buffer.put(i, a);
 			}
 		}
 	}
@@ -70,10 +201,10 @@ public class Matrix {
 	/*** TRANSPOSE ***/
 	
 	public Matrix transpose() {
-		if (rows == 1 || cols == 1) // More efficient for vectors
-			return new Matrix(values, cols, rows);
+		if ((rows == 1 || cols == 1) && !isOffHeap()) // More efficient for vectors
+			return floats != null ? new Matrix(floats, cols, rows) : new Matrix(values, cols, rows);
 		
-		Matrix transposed = new Matrix(cols, rows);
+		Matrix transposed = new Matrix(cols, rows, getPrecision());
 		transpose(this, transposed);
 		
 		return transposed;
@@ -93,7 +224,7 @@ public class Matrix {
 	/*** ADDITION ***/
 	
 	public Matrix add(Matrix m) {
-		Matrix newMatrix = new Matrix(rows, cols);
+		Matrix newMatrix = new Matrix(rows, cols, getPrecision());
 		add(this, m, newMatrix);
 		
 		return newMatrix;
@@ -107,14 +238,20 @@ public class Matrix {
 		if(src1.getRows() != src2.getRows() || src1.getColumns() != src2.getColumns()) {
 			throw new RuntimeException("Matrix size mismatch");
 		} else if(dst == null) {
-			dst = new Matrix(src1.getRows(), src1.getColumns());
+			dst = new Matrix(src1.getRows(), src1.getColumns(), src1.getPrecision());
 		} else if(src1.getRows() != dst.getRows() || src1.getColumns() != dst.getColumns()) {
 			throw new RuntimeException("Matrix size mismatch");
 		}
 			
-		for(int i = 0; i < src1.getRows(); i++) {
-			for(int j = 0; j < src1.getColumns(); j++) {
-				dst.set(i, j, src1.get(i, j) + src2.get(i, j));
+		if(doubles(src1, src2, dst)) {
+			Kernels.get().add(src1.values, src2.values, dst.values, dst.values.length);
+		} else if(floats(src1, src2, dst)) {
+			Kernels.get().add(src1.floats, src2.floats, dst.floats, dst.floats.length);
+		} else {
+			for(int i = 0; i < src1.getRows(); i++) {
+				for(int j = 0; j < src1.getColumns(); j++) {
+					dst.set(i, j, src1.get(i, j) + src2.get(i, j));
+				}
 			}
 		}
 		return dst;
@@ -123,7 +260,7 @@ public class Matrix {
 	/*** SUBTRACTION ***/
 	
 	public Matrix sub(Matrix m) {
-		Matrix newMatrix = new Matrix(rows, cols);
+		Matrix newMatrix = new Matrix(rows, cols, getPrecision());
 		sub(this, m, newMatrix);
 		
 		return newMatrix;
@@ -134,14 +271,23 @@ public class Matrix {
 	}
 	
 	public static Matrix sub(Matrix a, Matrix b, Matrix dst) {
-		if(dst == null) {
-			dst = new Matrix(a.getRows(), a.getColumns());
-		} else if(a.getRows() != b.getRows() || a.getColumns() != b.getColumns() || a.getRows() != dst.getRows() || a.getColumns() != dst.getColumns())
+		if(a.getRows() != b.getRows() || a.getColumns() != b.getColumns()) {
+			throw new RuntimeException("Matrix size mismatch");
+		} else if(dst == null) {
+			dst = new Matrix(a.getRows(), a.getColumns(), a.getPrecision());
+		} else if(a.getRows() != dst.getRows() || a.getColumns() != dst.getColumns()) {
 			throw new RuntimeException("Matrix size mismatch");
+		}
 		
-		for(int i = 0; i < a.getRows(); i++) {
-			for(int j = 0; j < a.getColumns(); j++) {
-				dst.set(i, j, a.get(i, j) - b.get(i, j));
+		if(doubles(a, b, dst)) {
+			Kernels.get().sub(a.values, b.values, dst.values, dst.values.length);
+		} else if(floats(a, b, dst)) {
+			Kernels.get().sub(a.floats, b.floats, dst.floats, dst.floats.length);
+		} else {
+			for(int i = 0; i < a.getRows(); i++) {
+				for(int j = 0; j < a.getColumns(); j++) {
+					dst.set(i, j, a.get(i, j) - b.get(i, j));
+				}
 			}
 		}
 		return dst;
@@ -154,20 +300,38 @@ public class Matrix {
 	}
 	
 	public static double getMultipliedEntry(Matrix a, Matrix b, int row, int column) {
-		//if(!(row < a.getRows() && row >= 0 && column < b.getColumns() && column >= 0))
-		//	throw new RuntimeException("Out of matrix bounds");
+		if(a.getColumns() != b.getRows() || !a.withinRange(row, 0) || !b.withinRange(0, column))
+			throw new RuntimeException("Out of matrix bounds");
 		
 		double sum = 0;
+		int n = b.getColumns(), r = row * a.getColumns();
 		
-		for(int i = 0; i < a.getColumns(); i++) {
-			sum += a.get(row, i) * b.get(i, column);
+		//the column of a column vector is contiguous
+		if(n == 1 && a.floats != null && b.floats != null) {
+			sum = Kernels.get().dot(a.floats, r, b.floats, 0, a.getColumns());
+		} else if(n == 1 && a.values != null && b.values != null) {
+			sum = Kernels.get().dot(a.values, r, b.values, 0, a.getColumns());
+		} else if(a.floats != null && b.floats != null) {
+			float[] x = a.floats, y = b.floats;
+			for(int i = 0; i < a.getColumns(); i++) {
+				sum += x[r + i] * y[i * n + column];
+			}
+		} else if(a.values != null && b.values != null) {
+			double[] x = a.values, y = b.values;
+			for(int i = 0; i < a.getColumns(); i++) {
+				sum += x[r + i] * y[i * n + column];
+			}
+		} else {
+			for(int i = 0; i < a.getColumns(); i++) {
+				sum += a.get(row, i) * b.get(i, column);
+			}
 		}
 		
 		return sum;
 	}
 	
 	public Matrix multiply(double scalar) { //Scalar multiple
-		Matrix newMatrix = new Matrix(rows, cols);
+		Matrix newMatrix = new Matrix(rows, cols, getPrecision());
 		scl(this, newMatrix, scalar);
 		
 		return newMatrix;
@@ -179,21 +343,27 @@ public class Matrix {
 	
 	public static Matrix scl(Matrix src, Matrix dst, double val) {
 		if(dst == null) {
-			dst = new Matrix(src.getRows(), src.getColumns());
+			dst = new Matrix(src.getRows(), src.getColumns(), src.getPrecision());
 		} else if(src.getRows() != dst.getRows() || src.getColumns() != dst.getColumns()) {
 			throw new RuntimeException("Matrix size mismatch");
 		}
 		
-		for(int i = 0; i < src.getRows(); i++) {
-			for(int j = 0; j < src.getColumns(); j++) {
-				dst.set(i, j, val * src.get(i, j));
+		if(src.values != null && dst.values != null) {
+			Kernels.get().scale(src.values, val, dst.values, dst.values.length);
+		} else if(src.floats != null && dst.floats != null) {
+			Kernels.get().scale(src.floats, (float) val, dst.floats, dst.floats.length);
+		} else {
+			for(int i = 0; i < src.getRows(); i++) {
+				for(int j = 0; j < src.getColumns(); j++) {
+					dst.set(i, j, val * src.get(i, j));
+				}
 			}
 		}
 		return dst;
 	}
 	
 	public Matrix dot(Matrix m) {
-		Matrix newMatrix = new Matrix(rows, m.getColumns());
+		Matrix newMatrix = new Matrix(rows, m.getColumns(), getPrecision());
 		dot(this, m, newMatrix);
 		
 		return newMatrix;
@@ -203,24 +373,26 @@ public class Matrix {
 		if(src1.getColumns() != src2.getRows()) {
 			throw new RuntimeException("Matrix size mismatch");
 		} else if(dst == null) {
-			dst = new Matrix(src1.getRows(), src2.getColumns());
+			dst = new Matrix(src1.getRows(), src2.getColumns(), src1.getPrecision());
 		} else if(dst.getRows() != src1.getRows() || dst.getColumns() != src2.getColumns()) {
 			throw new RuntimeException("Matrix size mismatch");
 		}
 		
-		for(int i = 0; i < src1.getRows(); i++) {
-			for(int j = 0; j < src2.getColumns(); j++) {
-				dst.set(i, j, getMultipliedEntry(src1, src2, i, j));
-			}
+		if(precision(src1, src2, dst) == Precision.SINGLE) {
+			float[] c = outputFloats(dst, src1, src2);
+			Gemm.nn(src1.floats, src2.floats, c, src1.getRows(), src2.getColumns(), src1.getColumns());
+			return result(dst, c);
 		}
-		return dst;
+		double[] c = output(dst, src1, src2);
+		Gemm.nn(src1.values, src2.values, c, src1.getRows(), src2.getColumns(), src1.getColumns());
+		return result(dst, c);
 	}
 	
 	/*** MULTIPLY WITH TRANSPOSE ***/
 
 	// Transpose this matrix and multiply with m
 	public Matrix multiplyTransposeSelf(Matrix m) {
-		Matrix newMatrix = new Matrix(cols, m.getColumns());
+		Matrix newMatrix = new Matrix(cols, m.getColumns(), getPrecision());
 		multiplyTransposeA(this, m, newMatrix);
 
 		return newMatrix;
@@ -229,20 +401,21 @@ public class Matrix {
 	public static void multiplyTransposeA(Matrix a, Matrix b, Matrix dst) {
 		if(a.getRows() != b.getRows() || dst.getRows() != a.getColumns() || dst.getColumns() != b.getColumns())
 			throw new RuntimeException("Matrix size mismatch");
-		for(int i = 0; i < a.getColumns(); i++) {
-			for(int j = 0; j < b.getColumns(); j++) {
-				double total = 0;
-				for (int k = 0; k < a.getRows(); k++) {
-					total += a.get(k, i) * b.get(k, j);
-				}
-				dst.set(i, j, total);
-			}
+		
+		if(precision(a, b, dst) == Precision.SINGLE) {
+			float[] c = outputFloats(dst, a, b);
+			Gemm.tn(a.floats, b.floats, c, a.getColumns(), b.getColumns(), a.getRows());
+			result(dst, c);
+			return;
 		}
+		double[] c = output(dst, a, b);
+		Gemm.tn(a.values, b.values, c, a.getColumns(), b.getColumns(), a.getRows());
+		result(dst, c);
 	}
 
 	// Multiply this matrix with the transpose of m
 	public Matrix multiplyTransposeM(Matrix m) {
-		Matrix newMatrix = new Matrix(rows, m.getRows());
+		Matrix newMatrix = new Matrix(rows, m.getRows(), getPrecision());
 		multiplyTransposeB(this, m, newMatrix);
 
 		return newMatrix;
@@ -252,21 +425,55 @@ public class Matrix {
 		if(a.getColumns() != b.getColumns() || dst.getRows() != a.getRows() || dst.getColumns() != b.getRows())
 			throw new RuntimeException("Matrix size mismatch");
 		
-		for(int i = 0; i < a.getRows(); i++) {
-			for(int j = 0; j < b.getRows(); j++) {
-				double total = 0;
-				for (int k = 0; k < a.getColumns(); k++) {
-					total += a.get(i, k) * b.get(j, k);
-				}		
-				dst.set(i, j, total);
-			}
+		if(precision(a, b, dst) == Precision.SINGLE) {
+			float[] c = outputFloats(dst, a, b);
+			Gemm.nt(a.floats, b.floats, c, a.getRows(), b.getRows(), a.getColumns());
+			result(dst, c);
+			return;
 		}
+		double[] c = output(dst, a, b);
+		Gemm.nt(a.values, b.values, c, a.getRows(), b.getRows(), a.getColumns());
+		result(dst, c);
+	}
+	
+	// The common precision of the operands of a product, which all have to be on the heap
+	private static Precision precision(Matrix a, Matrix b, Matrix dst) {
+		if(a.getPrecision() != b.getPrecision() || a.getPrecision() != dst.getPrecision())
+			throw new RuntimeException("Matrix precision mismatch");
+		if(a.isOffHeap() || b.isOffHeap() || dst.isOffHeap())
+			throw new RuntimeException("Off-heap matrices are only multiplied as the weights of a dense layer");
+		return a.getPrecision();
+	}
+	
+	// The array a product is written to, a scratch array if dst is also one of its inputs
+	private static double[] output(Matrix dst, Matrix a, Matrix b) {
+		if(dst.values == a.values || dst.values == b.values)
+			return new double[dst.values.length];
+		return dst.values;
+	}
+	
+	private static Matrix result(Matrix dst, double[] c) {
+		if(c != dst.values)
+			System.arraycopy(c, 0, dst.values, 0, c.length);
+		return dst;
+	}
+	
+	private static float[] outputFloats(Matrix dst, Matrix a, Matrix b) {
+		if(dst.floats == a.floats || dst.floats == b.floats)
+			return new float[dst.floats.length];
+		return dst.floats;
+	}
+	
+	private static Matrix result(Matrix dst, float[] c) {
+		if(c != dst.floats)
+			System.arraycopy(c, 0, dst.floats, 0, c.length);
+		return dst;
 	}
 
 	/*** HADAMARD PRODUCT ***/
 	
 	public Matrix hadamardProduct(Matrix m) {
-		Matrix newMatrix = new Matrix(rows, cols);
+		Matrix newMatrix = new Matrix(rows, cols, getPrecision());
 		pro(this, m, newMatrix);
 		
 		return newMatrix;
@@ -277,14 +484,71 @@ public class Matrix {
 	}
 	
 	public static Matrix pro(Matrix a, Matrix b, Matrix dst) {
-		if(dst == null) {
-			dst = new Matrix(a.getRows(), a.getColumns());
-		} else if(a.getRows() != b.getRows() || a.getColumns() != b.getColumns() || a.getRows() != dst.getRows() || a.getColumns() != dst.getColumns())
+		if(a.getRows() != b.getRows() || a.getColumns() != b.getColumns()) {
+			throw new RuntimeException("Matrix size mismatch");
+		} else if(dst == null) {
+			dst = new Matrix(a.getRows(), a.getColumns(), a.getPrecision());
+		} else if(a.getRows() != dst.getRows() || a.getColumns() != dst.getColumns()) {
+			throw new RuntimeException("Matrix size mismatch");
+		}
+		
+		if(doubles(a, b, dst)) {
+			Kernels.get().mul(a.values, b.values, dst.values, dst.values.length);
+		} else if(floats(a, b, dst)) {
+			Kernels.get().mul(a.floats, b.floats, dst.floats, dst.floats.length);
+		} else {
+			for(int i = 0; i < a.getRows(); i++) {
+				for(int j = 0; j < a.getColumns(); j++) {
+					dst.set(i, j, a.get(i, j) * b.get(i, j));
+				}
+			}
+		}
+		return dst;
+	}
+	
+	// Multiply a element-wise with the derivative d applied to b
+	public static Matrix pro(Matrix a, Matrix b, Derivative d, Matrix dst) {
+		if(a.getRows() != b.getRows() || a.getColumns() != b.getColumns()) {
+			throw new RuntimeException("Matrix size mismatch");
+		} else if(dst == null) {
+			dst = new Matrix(a.getRows(), a.getColumns(), a.getPrecision());
+		} else if(a.getRows() != dst.getRows() || a.getColumns() != dst.getColumns()) {
+			throw new RuntimeException("Matrix size mismatch");
+		}
+		
+		if(doubles(a, b, dst)) {
+			d.pro(a.values, b.values, dst.values, 0, dst.values.length);
+		} else if(floats(a, b, dst)) {
+			d.pro(a.floats, b.floats, dst.floats, 0, dst.floats.length);
+		} else {
+			for(int i = 0; i < a.getRows(); i++) {
+				for(int j = 0; j < a.getColumns(); j++) {
+					dst.set(i, j, a.get(i, j) * d.d(b.get(i, j)));
+				}
+			}
+		}
+		return dst;
+	}
+	
+	// Multiply a element-wise with the derivative d, calculated from the outputs y of its activation function
+	public static Matrix proOut(Matrix a, Matrix y, Derivative d, Matrix dst) {
+		if(a.getRows() != y.getRows() || a.getColumns() != y.getColumns()) {
+			throw new RuntimeException("Matrix size mismatch");
+		} else if(dst == null) {
+			dst = new Matrix(a.getRows(), a.getColumns(), a.getPrecision());
+		} else if(a.getRows() != dst.getRows() || a.getColumns() != dst.getColumns()) {
 			throw new RuntimeException("Matrix size mismatch");
+		}
 		
-		for(int i = 0; i < a.getRows(); i++) {
-			for(int j = 0; j < a.getColumns(); j++) {
-				dst.set(i, j, a.get(i, j) * b.get(i, j));
+		if(doubles(a, y, dst)) {
+			d.proOut(a.values, y.values, dst.values, 0, dst.values.length);
+		} else if(floats(a, y, dst)) {
+			d.proOut(a.floats, y.floats, dst.floats, 0, dst.floats.length);
+		} else {
+			for(int i = 0; i < a.getRows(); i++) {
+				for(int j = 0; j < a.getColumns(); j++) {
+					dst.set(i, j, a.get(i, j) * d.dOut(y.get(i, j)));
+				}
 			}
 		}
 		return dst;
@@ -293,7 +557,7 @@ public class Matrix {
 /*** HADAMARD DIVISION ***/
 	
 	public Matrix hadamardDivision(Matrix m) {
-		Matrix newMatrix = new Matrix(rows, cols);
+		Matrix newMatrix = new Matrix(rows, cols, getPrecision());
 		hadamardDivision(this, m, newMatrix);
 		
 		return newMatrix;
@@ -307,13 +571,555 @@ public class Matrix {
 		if(a.getRows() != b.getRows() || a.getColumns() != b.getColumns() || a.getRows() != dst.getRows() || a.getColumns() != dst.getColumns())
 			throw new RuntimeException("Matrix size mismatch");
 		
-		for(int i = 0; i < a.getRows(); i++) {
-			for(int j = 0; j < a.getColumns(); j++) {
-				dst.set(i, j, a.get(i, j) / b.get(i, j));
+		if(doubles(a, b, dst)) {
+			Kernels.get().div(a.values, b.values, dst.values, dst.values.length);
+		} else if(floats(a, b, dst)) {
+			Kernels.get().div(a.floats, b.floats, dst.floats, dst.floats.length);
+		} else {
+			for(int i = 0; i < a.getRows(); i++) {
+				for(int j = 0; j < a.getColumns(); j++) {
+					dst.set(i, j, a.get(i, j) / b.get(i, j));
+				}
+			}
+		}
+	}
+	
+	/*** FUSED LAYERS ***/
+	
+	// The activations f(w * x + b) of a dense layer written into dst in a single pass, with the
+	// bias added as the start value of the products and the activation function applied to
+	// every block of the product as soon as it is finished. the weighted sums w * x + b are
+	// kept in sums unless it is null
+	public static Matrix dense(Matrix w, Matrix x, Matrix b, Activation f, Matrix sums, Matrix dst) {
+		if(w.getColumns() != x.getRows() || b.getRows() != w.getRows() || b.getColumns() != 1) {
+			throw new RuntimeException("Matrix size mismatch");
+		} else if(dst == null) {
+			dst = new Matrix(w.getRows(), x.getColumns(), w.getPrecision());
+		} else if(dst.getRows() != w.getRows() || dst.getColumns() != x.getColumns()) {
+			throw new RuntimeException("Matrix size mismatch");
+		}
+		if(sums != null && (sums.getRows() != dst.getRows() || sums.getColumns() != dst.getColumns()))
+			throw new RuntimeException("Matrix size mismatch");
+		
+		Matrix c = sums != null ? sums : dst;
+		if(aliases(c, w, x) || aliases(dst, w, x))
+			throw new RuntimeException("The outputs of a layer must not be its inputs");
+		if(w.isOffHeap() || b.isOffHeap())
+			return denseOffHeap(w, x, b, f, c, dst);
+		
+		int n = x.getColumns();
+		if(precision(w, x, dst) == Precision.SINGLE) {
+			precision(b, c, dst);
+			float[] z = c.floats, out = dst.floats;
+			Gemm.nn(w.floats, x.floats, b.floats, z, w.getRows(), n, w.getColumns(), (i0, i1, j0, j1) -> {
+				for(int i = i0; i < i1; i++) {
+					f.apply(z, out, i * n + j0, j1 - j0);
+				}
+			});
+			return dst;
+		}
+		precision(b, c, dst);
+		double[] z = c.values, out = dst.values;
+		Gemm.nn(w.values, x.values, b.values, z, w.getRows(), n, w.getColumns(), (i0, i1, j0, j1) -> {
+			for(int i = i0; i < i1; i++) {
+				f.apply(z, out, i * n + j0, j1 - j0);
 			}
+		});
+		return dst;
+	}
+	
+	// The dense layer with its weights or biases off the heap, like those of a mapped checkpoint. the weights
+	// are copied block by block of rows into arrays on the heap that every thread reuses (a plain copy of the
+	// memory, which stays in the cache), and every block is multiplied by the blocked kernels like a layer on
+	// the heap, so the results are exactly the same
+	private static Matrix denseOffHeap(Matrix w, Matrix x, Matrix b, Activation f, Matrix c, Matrix dst) {
+		if(w.getPrecision() != x.getPrecision() || w.getPrecision() != dst.getPrecision() || b.getPrecision() != w.getPrecision() || c.getPrecision() != w.getPrecision())
+			throw new RuntimeException("Matrix precision mismatch");
+		if(x.isOffHeap() || c.isOffHeap() || dst.isOffHeap())
+			throw new RuntimeException("Off-heap matrices are only multiplied as the weights of a dense layer");
+		
+		int m = w.getRows(), n = x.getColumns(), k = w.getColumns();
+		int rows = Math.min(m, OFF_HEAP_ROWS);
+		Matrix[] scratch = OFF_HEAP_SCRATCH.get();
+		Precision p = w.getPrecision();
+		Matrix sa = scratch(scratch, 0, rows * k, p), sb = scratch(scratch, 1, rows, p);
+		Matrix sz = scratch(scratch, 2, rows * n, p), so = scratch(scratch, 3, rows * n, p);
+		if(p == Precision.SINGLE) {
+			float[] a = sa.floats, bias = sb.floats, z = sz.floats, out = so.floats;
+			for(int i0 = 0; i0 < m; i0 += rows) {
+				int r = Math.min(rows, m - i0);
+				rows(w, i0, r, a);
+				rows(b, i0, r, bias);
+				Gemm.nn(a, x.floats, bias, z, r, n, k, (j0, j1, l0, l1) -> {
+					for(int i = j0; i < j1; i++) {
+						f.apply(z, out, i * n + l0, l1 - l0);
+					}
+				});
+				if(c != dst)
+					System.arraycopy(z, 0, c.floats, i0 * n, r * n);
+				System.arraycopy(out, 0, dst.floats, i0 * n, r * n);
+			}
+			return dst;
 		}
+		double[] a = sa.values, bias = sb.values, z = sz.values, out = so.values;
+		for(int i0 = 0; i0 < m; i0 += rows) {
+			int r = Math.min(rows, m - i0);
+			rows(w, i0, r, a);
+			rows(b, i0, r, bias);
+			Gemm.nn(a, x.values, bias, z, r, n, k, (j0, j1, l0, l1) -> {
+				for(int i = j0; i < j1; i++) {
+					f.apply(z, out, i * n + l0, l1 - l0);
+				}
+			});
+			if(c != dst)
+				System.arraycopy(z, 0, c.values, i0 * n, r * n);
+			System.arraycopy(out, 0, dst.values, i0 * n, r * n);
+		}
+		return dst;
+	}
+	
+	// The scratch array of a thread at the given index with room for at least the given amount of values
+	private static Matrix scratch(Matrix[] scratch, int index, int size, Precision precision) {
+		Matrix m = scratch[index];
+		if(m == null || m.getPrecision() != precision || m.rows < size)
+			scratch[index] = m = new Matrix(size, 1, precision);
+		return m;
 	}
 	
+	// Copies the given rows of a matrix on or off the heap into the start of dst
+	private static void rows(Matrix m, int row, int count, double[] dst) {
+		int off = row * m.cols, len = count * m.cols;
+		if(m.values != null)
+			System.arraycopy(m.values, off, dst, 0, len);
+		else
+			m.buffer.get(off, dst, 0, len);
+	}
+	
+	private static void rows(Matrix m, int row, int count, float[] dst) {
+		int off = row * m.cols, len = count * m.cols;
+		if(m.floats != null)
+			System.arraycopy(m.floats, off, dst, 0, len);
+		else
+			m.floatBuffer.get(off, dst, 0, len);
+	}
+	
+	// The error (a^T * e) .* d(z) of a hidden layer written into dst in a single pass, from the
+	// weights a and the error e of the layer after it and the weighted sums z of the layer itself.
+	// the derivative is applied to every block of the product as soon as it is finished
+	public static Matrix denseBackward(Matrix a, Matrix e, Matrix z, Derivative d, Matrix dst) {
+		return denseBackward(a, e, z, d, false, dst);
+	}
+	
+	// The same error calculated from the outputs y = f(z) of the layer with the output form of the
+	// derivative, so that the weighted sums of the layer are not needed
+	public static Matrix denseBackwardOut(Matrix a, Matrix e, Matrix y, Derivative d, Matrix dst) {
+		return denseBackward(a, e, y, d, true, dst);
+	}
+	
+	private static Matrix denseBackward(Matrix a, Matrix e, Matrix z, Derivative d, boolean out, Matrix dst) {
+		if(a.getRows() != e.getRows() || z.getRows() != a.getColumns() || z.getColumns() != e.getColumns()) {
+			throw new RuntimeException("Matrix size mismatch");
+		} else if(dst == null) {
+			dst = new Matrix(z.getRows(), z.getColumns(), z.getPrecision());
+		} else if(dst.getRows() != z.getRows() || dst.getColumns() != z.getColumns()) {
+			throw new RuntimeException("Matrix size mismatch");
+		}
+		if(aliases(dst, a, e) || aliases(dst, z, z))
+			throw new RuntimeException("The outputs of a layer must not be its inputs");
+		
+		int n = e.getColumns();
+		if(precision(a, e, dst) == Precision.SINGLE) {
+			precision(z, z, dst);
+			float[] c = dst.floats, s = z.floats;
+			Gemm.tn(a.floats, e.floats, c, a.getColumns(), n, a.getRows(), (i0, i1, j0, j1) -> {
+				for(int i = i0; i < i1; i++) {
+					if(out)
+						d.proOut(c, s, c, i * n + j0, j1 - j0);
+					else
+						d.pro(c, s, c, i * n + j0, j1 - j0);
+				}
+			});
+			return dst;
+		}
+		precision(z, z, dst);
+		double[] c = dst.values, s = z.values;
+		Gemm.tn(a.values, e.values, c, a.getColumns(), n, a.getRows(), (i0, i1, j0, j1) -> {
+			for(int i = i0; i < i1; i++) {
+				if(out)
+					d.proOut(c, s, c, i * n + j0, j1 - j0);
+				else
+					d.pro(c, s, c, i * n + j0, j1 - j0);
+			}
+		});
+		return dst;
+	}
+	
+	// Whether dst shares its storage with a or b
+	private static boolean aliases(Matrix dst, Matrix a, Matrix b) {
+		Object storage = dst.floats != null ? dst.floats : dst.values;
+		// An output off the heap has no arrays, it fails as such later on
+		if(storage == null)
+			return false;
+		return storage == a.floats || storage == a.values || storage == b.floats || storage == b.values;
+	}
+	
+	/*** SPARSE INPUTS ***/
+	
+	// The activations f(w * x + b) of a dense layer on a batch of sparse inputs, which only multiplies
+	// the weights with the nonzero inputs of every column. a row of weights is used for every sample
+	// of the batch before the next one is loaded, and the activation function is applied to every
+	// row as soon as it is finished. the weighted sums are kept in sums unless it is null
+	public static Matrix dense(Matrix w, SparseBatch x, Matrix b, Activation f, Matrix sums, Matrix dst) {
+		if(w.getColumns() != x.getRows() || b.getRows() != w.getRows() || b.getColumns() != 1) {
+			throw new RuntimeException("Matrix size mismatch");
+		} else if(dst == null) {
+			dst = new Matrix(w.getRows(), x.getColumns(), w.getPrecision());
+		} else if(dst.getRows() != w.getRows() || dst.getColumns() != x.getColumns()) {
+			throw new RuntimeException("Matrix size mismatch");
+		}
+		if(sums != null && (sums.getRows() != dst.getRows() || sums.getColumns() != dst.getColumns()))
+			throw new RuntimeException("Matrix size mismatch");
+		if(!x.isComplete())
+			throw new RuntimeException("The sparse batch is not complete");
+		
+		Matrix c = sums != null ? sums : dst;
+		if(aliases(c, w, w) || aliases(dst, w, w))
+			throw new RuntimeException("The outputs of a layer must not be its inputs");
+		
+		int n = x.getColumns(), k = w.getColumns();
+		int[] start = x.start, index = x.index;
+		if(precision(w, x, dst) == Precision.SINGLE) {
+			precision(b, c, dst);
+			float[] a = w.floats, v = x.floats, bias = b.floats, z = c.floats, out = dst.floats;
+			int i = 0;
+			//four rows at a time, so that every index and input is loaded once for four sums
+			for(; i + 4 <= w.getRows(); i += 4) {
+				int row = i * k;
+				for(int j = 0; j < n; j++) {
+					float s0 = bias[i], s1 = bias[i + 1], s2 = bias[i + 2], s3 = bias[i + 3];
+					for(int p = start[j]; p < start[j + 1]; p++) {
+						int q = row + index[p];
+						float u = v[p];
+						s0 += a[q] * u;
+						s1 += a[q + k] * u;
+						s2 += a[q + 2 * k] * u;
+						s3 += a[q + 3 * k] * u;
+					}
+					z[i * n + j] = s0;
+					z[(i + 1) * n + j] = s1;
+					z[(i + 2) * n + j] = s2;
+					z[(i + 3) * n + j] = s3;
+				}
+				f.apply(z, out, i * n, 4 * n);
+			}
+			for(; i < w.getRows(); i++) {
+				int row = i * k;
+				for(int j = 0; j < n; j++) {
+					float sum = bias[i];
+					for(int p = start[j]; p < start[j + 1]; p++) {
+						sum += a[row + index[p]] * v[p];
+					}
+					z[i * n + j] = sum;
+				}
+				f.apply(z, out, i * n, n);
+			}
+			return dst;
+		}
+		precision(b, c, dst);
+		double[] a = w.values, v = x.values, bias = b.values, z = c.values, out = dst.values;
+		int i = 0;
+		//four rows at a time, so that every index and input is loaded once for four sums
+		for(; i + 4 <= w.getRows(); i += 4) {
+			int row = i * k;
+			for(int j = 0; j < n; j++) {
+				double s0 = bias[i], s1 = bias[i + 1], s2 = bias[i + 2], s3 = bias[i + 3];
+				for(int p = start[j]; p < start[j + 1]; p++) {
+					int q = row + index[p];
+					double u = v[p];
+					s0 += a[q] * u;
+					s1 += a[q + k] * u;
+					s2 += a[q + 2 * k] * u;
+					s3 += a[q + 3 * k] * u;
+				}
+				z[i * n + j] = s0;
+				z[(i + 1) * n + j] = s1;
+				z[(i + 2) * n + j] = s2;
+				z[(i + 3) * n + j] = s3;
+			}
+			f.apply(z, out, i * n, 4 * n);
+		}
+		for(; i < w.getRows(); i++) {
+			int row = i * k;
+			for(int j = 0; j < n; j++) {
+				double sum = bias[i];
+				for(int p = start[j]; p < start[j + 1]; p++) {
+					sum += a[row + index[p]] * v[p];
+				}
+				z[i * n + j] = sum;
+			}
+			f.apply(z, out, i * n, n);
+		}
+		return dst;
+	}
+	
+	// The product of a with the transpose of the sparse batch b, like the gradient of the weights
+	// of the first layer, which only adds up the products with the nonzero inputs of every column
+	public static void multiplyTransposeB(Matrix a, SparseBatch b, Matrix dst) {
+		if(a.getColumns() != b.getColumns() || dst.getRows() != a.getRows() || dst.getColumns() != b.getRows())
+			throw new RuntimeException("Matrix size mismatch");
+		if(!b.isComplete())
+			throw new RuntimeException("The sparse batch is not complete");
+		
+		int n = a.getColumns(), k = dst.getColumns();
+		int[] start = b.start, index = b.index;
+		dst.clear();
+		if(precision(a, b, dst) == Precision.SINGLE) {
+			float[] e = a.floats, v = b.floats, c = dst.floats;
+			int i = 0;
+			//four rows at a time, so that every index and input is loaded once for four rows
+			for(; i + 4 <= a.getRows(); i += 4) {
+				int row = i * k;
+				for(int j = 0; j < n; j++) {
+					float e0 = e[i * n + j], e1 = e[(i + 1) * n + j], e2 = e[(i + 2) * n + j], e3 = e[(i + 3) * n + j];
+					for(int p = start[j]; p < start[j + 1]; p++) {
+						int q = row + index[p];
+						float x = v[p];
+						c[q] += e0 * x;
+						c[q + k] += e1 * x;
+						c[q + 2 * k] += e2 * x;
+						c[q + 3 * k] += e3 * x;
+					}
+				}
+			}
+			for(; i < a.getRows(); i++) {
+				int row = i * k;
+				for(int j = 0; j < n; j++) {
+					float s = e[i * n + j];
+					for(int p = start[j]; p < start[j + 1]; p++) {
+						c[row + index[p]] += s * v[p];
+					}
+				}
+			}
+			return;
+		}
+		double[] e = a.values, v = b.values, c = dst.values;
+		int i = 0;
+		//four rows at a time, so that every index and input is loaded once for four rows
+		for(; i + 4 <= a.getRows(); i += 4) {
+			int row = i * k;
+			for(int j = 0; j < n; j++) {
+				double e0 = e[i * n + j], e1 = e[(i + 1) * n + j], e2 = e[(i + 2) * n + j], e3 = e[(i + 3) * n + j];
+				for(int p = start[j]; p < start[j + 1]; p++) {
+					int q = row + index[p];
+					double x = v[p];
+					c[q] += e0 * x;
+					c[q + k] += e1 * x;
+					c[q + 2 * k] += e2 * x;
+					c[q + 3 * k] += e3 * x;
+				}
+			}
+		}
+		for(; i < a.getRows(); i++) {
+			int row = i * k;
+			for(int j = 0; j < n; j++) {
+				double s = e[i * n + j];
+				for(int p = start[j]; p < start[j + 1]; p++) {
+					c[row + index[p]] += s * v[p];
+				}
+			}
+		}
+	}
+	
+	// The common precision of a product with a sparse batch
+	private static Precision precision(Matrix a, SparseBatch b, Matrix dst) {
+		if(a.getPrecision() != b.getPrecision() || a.getPrecision() != dst.getPrecision())
+			throw new RuntimeException("Matrix precision mismatch");
+		if(a.isOffHeap() || dst.isOffHeap())
+			throw new RuntimeException("Off-heap matrices are only multiplied as the weights of a dense layer");
+		return a.getPrecision();
+	}
+	
+	/*** SPARSE WEIGHTS ***/
+	
+	// The product of the sparse matrix a with b written into dst, which only multiplies b with the
+	// nonzero values of a
+	public static Matrix dot(SparseMatrix a, Matrix b, Matrix dst) {
+		return sparse(a, b, null, null, dst);
+	}
+	
+	// The activations f(w * x + b) of a dense layer with the pruned weights w, which only multiplies
+	// the inputs with the nonzero weights. every weight of a row is multiplied with the whole row of
+	// inputs (one value per sample), so that the inner loop runs over contiguous columns, but for a
+	// single sample every row is a dot product with the inputs at the columns of its weights
+	public static Matrix dense(SparseMatrix w, Matrix x, Matrix b, Activation f, Matrix dst) {
+		if(b.getRows() != w.getRows() || b.getColumns() != 1)
+			throw new RuntimeException("Matrix size mismatch");
+		return sparse(w, x, b, f, dst);
+	}
+	
+	private static Matrix sparse(SparseMatrix w, Matrix x, Matrix b, Activation f, Matrix dst) {
+		if(w.getColumns() != x.getRows()) {
+			throw new RuntimeException("Matrix size mismatch");
+		} else if(dst == null) {
+			dst = new Matrix(w.getRows(), x.getColumns(), w.getPrecision());
+		} else if(dst.getRows() != w.getRows() || dst.getColumns() != x.getColumns()) {
+			throw new RuntimeException("Matrix size mismatch");
+		}
+		if(aliases(dst, x, x))
+			throw new RuntimeException("The outputs of a layer must not be its inputs");
+		if(w.getPrecision() != x.getPrecision() || w.getPrecision() != dst.getPrecision() || (b != null && b.getPrecision() != w.getPrecision()))
+			throw new RuntimeException("Matrix precision mismatch");
+		if(x.isOffHeap() || dst.isOffHeap() || (b != null && b.isOffHeap()))
+			throw new RuntimeException("Off-heap matrices are only multiplied as the weights of a dense layer");
+		
+		int n = x.getColumns();
+		int[] start = w.start, index = w.index;
+		if(w.getPrecision() == Precision.SINGLE) {
+			float[] a = w.floats, in = x.floats, c = dst.floats, bias = b != null ? b.floats : null;
+			for(int i = 0; i < w.getRows(); i++) {
+				int o = i * n;
+				float init = bias != null ? bias[i] : 0;
+				if(n == 1) {
+					float sum = init;
+					for(int p = start[i]; p < start[i + 1]; p++) {
+						sum += a[p] * in[index[p]];
+					}
+					c[i] = sum;
+				} else {
+					for(int j = 0; j < n; j++) {
+						c[o + j] = init;
+					}
+					//two weights per pass over the row of outputs
+					int p = start[i];
+					for(; p + 1 < start[i + 1]; p += 2) {
+						float a0 = a[p], a1 = a[p + 1];
+						int q0 = index[p] * n, q1 = index[p + 1] * n;
+						for(int j = 0; j < n; j++) {
+							c[o + j] += a0 * in[q0 + j] + a1 * in[q1 + j];
+						}
+					}
+					if(p < start[i + 1]) {
+						float a0 = a[p];
+						int q0 = index[p] * n;
+						for(int j = 0; j < n; j++) {
+							c[o + j] += a0 * in[q0 + j];
+						}
+					}
+				}
+				if(f != null)
+					f.apply(c, c, o, n);
+			}
+			return dst;
+		}
+		double[] a = w.values, in = x.values, c = dst.values, bias = b != null ? b.values : null;
+		for(int i = 0; i < w.getRows(); i++) {
+			int o = i * n;
+			double init = bias != null ? bias[i] : 0;
+			if(n == 1) {
+				double sum = init;
+				for(int p = start[i]; p < start[i + 1]; p++) {
+					sum += a[p] * in[index[p]];
+				}
+				c[i] = sum;
+			} else {
+				for(int j = 0; j < n; j++) {
+					c[o + j] = init;
+				}
+				//two weights per pass over the row of outputs
+				int p = start[i];
+				for(; p + 1 < start[i + 1]; p += 2) {
+					double a0 = a[p], a1 = a[p + 1];
+					int q0 = index[p] * n, q1 = index[p + 1] * n;
+					for(int j = 0; j < n; j++) {
+						c[o + j] += a0 * in[q0 + j] + a1 * in[q1 + j];
+					}
+				}
+				if(p < start[i + 1]) {
+					double a0 = a[p];
+					int q0 = index[p] * n;
+					for(int j = 0; j < n; j++) {
+						c[o + j] += a0 * in[q0 + j];
+					}
+				}
+			}
+			if(f != null)
+				f.apply(c, c, o, n);
+		}
+		return dst;
+	}
+	
+	/*** BROADCASTING ***/
+
+	// Add the column vector col to every column of src
+	public static Matrix addColumn(Matrix src, Matrix col, Matrix dst) {
+		if(col.getRows() != src.getRows() || col.getColumns() != 1) {
+			throw new RuntimeException("Matrix size mismatch");
+		} else if(dst == null) {
+			dst = new Matrix(src.getRows(), src.getColumns(), src.getPrecision());
+		} else if(src.getRows() != dst.getRows() || src.getColumns() != dst.getColumns()) {
+			throw new RuntimeException("Matrix size mismatch");
+		}
+
+		int n = src.getColumns();
+		for(int i = 0; i < src.getRows(); i++) {
+			double bias = col.get(i, 0);
+			if(src.values != null && dst.values != null) {
+				Kernels.get().shift(src.values, i * n, bias, dst.values, n);
+			} else if(src.floats != null && dst.floats != null) {
+				Kernels.get().shift(src.floats, i * n, (float) bias, dst.floats, n);
+			} else {
+				for(int j = 0; j < n; j++) {
+					dst.set(i, j, src.get(i, j) + bias);
+				}
+			}
+		}
+		return dst;
+	}
+
+	// Sum every row of src into a column vector
+	public static Matrix sumColumns(Matrix src, Matrix dst) {
+		if(dst == null) {
+			dst = new Matrix(src.getRows(), 1, src.getPrecision());
+		} else if(src.getRows() != dst.getRows() || dst.getColumns() != 1) {
+			throw new RuntimeException("Matrix size mismatch");
+		}
+
+		int n = src.getColumns();
+		for(int i = 0; i < src.getRows(); i++) {
+			if(src.floats != null) {
+				dst.set(i, 0, Kernels.get().sum(src.floats, i * n, n));
+			} else if(src.values != null) {
+				dst.set(i, 0, Kernels.get().sum(src.values, i * n, n));
+			} else {
+				double sum = 0;
+				for(int j = 0; j < n; j++) {
+					sum += src.get(i, j);
+				}
+				dst.set(i, 0, sum);
+			}
+		}
+		return dst;
+	}
+
+	// Copy the column vectors src[from] to src[to - 1] side by side into one matrix
+	public static Matrix join(Matrix[] src, int from, int to, Matrix dst) {
+		int rows = src[from].getRows();
+		if(dst == null) {
+			dst = new Matrix(rows, to - from, src[from].getPrecision());
+		} else if(dst.getRows() != rows || dst.getColumns() != to - from) {
+			throw new RuntimeException("Matrix size mismatch");
+		}
+
+		for(int j = from; j < to; j++) {
+			if(src[j].getRows() != rows || src[j].getColumns() != 1)
+				throw new RuntimeException("Matrix size mismatch");
+			for(int i = 0; i < rows; i++) {
+				dst.set(i, j - from, src[j].get(i, 0));
+			}
+		}
+		return dst;
+	}
+
 	/*** STATIC MATRIX GENERATORS ***/
 	
 	public static Matrix getIdentity(int size) {
@@ -333,7 +1139,7 @@ public class Matrix {
 	/*** VECTORIZATION ***/
 	
 	public Matrix vectorize(Activation f) {
-		Matrix newMatrix = new Matrix(rows, cols);
+		Matrix newMatrix = new Matrix(rows, cols, getPrecision());
 		vec(this, newMatrix, f);
 		
 		return newMatrix;
@@ -345,14 +1151,20 @@ public class Matrix {
 	
 	public static Matrix vec(Matrix m, Matrix dst, Activation f) {
 		if(dst == null) {
-			dst = new Matrix(m.getRows(), m.getColumns());
+			dst = new Matrix(m.getRows(), m.getColumns(), m.getPrecision());
 		} else if(m.getRows() != dst.getRows() || m.getColumns() != dst.getColumns()) {
 			throw new RuntimeException("Matrix size mismatch");
 		}
 		
-		for(int i = 0; i < m.getRows(); i++) {
-			for(int j = 0; j < m.getColumns(); j++) {
-				dst.set(i, j, f.f(m.get(i, j)));
+		if(m.values != null && dst.values != null) {
+			f.apply(m.values, dst.values, 0, dst.values.length);
+		} else if(m.floats != null && dst.floats != null) {
+			f.apply(m.floats, dst.floats, 0, dst.floats.length);
+		} else {
+			for(int i = 0; i < m.getRows(); i++) {
+				for(int j = 0; j < m.getColumns(); j++) {
+					dst.set(i, j, f.f(m.get(i, j)));
+				}
 			}
 		}
 		return dst;
@@ -360,14 +1172,20 @@ public class Matrix {
 	
 	public static Matrix vec(Matrix m, Matrix dst, Derivative d) {
 		if(dst == null) {
-			dst = new Matrix(m.getRows(), m.getColumns());
+			dst = new Matrix(m.getRows(), m.getColumns(), m.getPrecision());
 		} else if(m.getRows() != dst.getRows() || m.getColumns() != dst.getColumns()) {
 			throw new RuntimeException("Matrix size mismatch");
 		}
 		
-		for(int i = 0; i < m.getRows(); i++) {
-			for(int j = 0; j < m.getColumns(); j++) {
-				dst.set(i, j, d.d(m.get(i, j)));
+		if(m.values != null && dst.values != null) {
+			d.apply(m.values, dst.values, 0, dst.values.length);
+		} else if(m.floats != null && dst.floats != null) {
+			d.apply(m.floats, dst.floats, 0, dst.floats.length);
+		} else {
+			for(int i = 0; i < m.getRows(); i++) {
+				for(int j = 0; j < m.getColumns(); j++) {
+					dst.set(i, j, d.d(m.get(i, j)));
+				}
 			}
 		}
 		return dst;
@@ -387,6 +1205,35 @@ public class Matrix {
 		return maxIndex;
 	}
 	
+	// The row of the maximum of every column written to dst from the offset on
+	public static int[] maxColumns(Matrix src, int[] dst, int off) {
+		if(dst == null)
+			dst = new int[off + src.getColumns()];
+		
+		for(int j = 0; j < src.getColumns(); j++) {
+			double maxValue = Double.NEGATIVE_INFINITY;
+			int maxIndex = 0;
+			for(int i = 0; i < src.getRows(); i++) {
+				if(src.get(i, j) > maxValue) {
+					maxValue = src.get(i, j);
+					maxIndex = i;
+				}
+			}
+			dst[off + j] = maxIndex;
+		}
+		return dst;
+	}
+	
+	// Whether all three matrices are stored in double precision
+	private static boolean doubles(Matrix a, Matrix b, Matrix dst) {
+		return a.values != null && b.values != null && dst.values != null;
+	}
+	
+	// Whether all three matrices are stored in single precision
+	private static boolean floats(Matrix a, Matrix b, Matrix dst) {
+		return a.floats != null && b.floats != null && dst.floats != null;
+	}
+	
 	/*** OBJECT METHODS ***/
 	
 	public boolean equals(Matrix m) {
@@ -0,0 +1,19 @@
+package utils;
+
+/**
+ * the floating point format the values of a Matrix are stored and computed in
+ */
+public enum Precision {
+	
+	/**
+	 * 64 bit values backed by a double[]
+	 */
+	DOUBLE,
+	
+	/**
+	 * 32 bit values backed by a float[], half the memory traffic
+	 * and twice as many values per SIMD register
+	 */
+	SINGLE
+	
+}
@@ -0,0 +1,187 @@
+package utils;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * gathers the batches of a dataset on a background thread, so that the next batch is
+ * shuffled, normalised and expanded while the network still trains on the current one.
+ * there are two buffers of the full batch size (and one for a smaller last batch),
+ * which take turns between being filled and being trained on. the inputs are gathered
+ * either into a dense matrix or, if the prefetcher is sparse, into a sparse batch
+ */
+public class Prefetcher implements AutoCloseable {
+
+	/**
+	 * one gathered batch with a column per sample
+	 */
+	public static class Batch {
+
+		private final Matrix in, out;
+		private final SparseBatch sparse;
+
+		private Batch(int features, int classes, int columns, Precision precision, boolean sparse) {
+			this.in = sparse ? null : new Matrix(features, columns, precision);
+			this.sparse = sparse ? new SparseBatch(features, columns, precision) : null;
+			this.out = new Matrix(classes, columns, precision);
+		}
+
+		/**
+		 * the dense inputs, null if the prefetcher is sparse
+		 */
+		public Matrix getInput() {
+			return in;
+		}
+
+		/**
+		 * the sparse inputs, null if the prefetcher is not sparse
+		 */
+		public SparseBatch getSparseInput() {
+			return sparse;
+		}
+
+		public Matrix getOutput() {
+			return out;
+		}
+
+		public int getColumns() {
+			return out.getColumns();
+		}
+	}
+
+	/**
+	 * marks the end of an epoch in the queue of gathered batches
+	 */
+	private static final Batch END = new Batch(0, 0, 0, Precision.DOUBLE, false);
+
+	private final Dataset data;
+	private final int batches;
+	private final Precision precision;
+	private final boolean sparse;
+
+	private final BlockingQueue<Batch> free = new ArrayBlockingQueue<Batch>(2);
+	private final BlockingQueue<Batch> ready = new ArrayBlockingQueue<Batch>(4);
+
+	/**
+	 * the buffer of the last batch if it is smaller than the others
+	 */
+	private Batch rest;
+
+	/**
+	 * the batch handed out by the last call of next
+	 */
+	private Batch current;
+
+	/**
+	 * the amount of batches of the current epoch that have not been handed out yet
+	 */
+	private int remaining;
+
+	private Thread worker;
+	private volatile Throwable failure;
+
+	public Prefetcher(Dataset data, int batches, Precision precision) {
+		this(data, batches, precision, false);
+	}
+
+	/**
+	 * a prefetcher that gathers sparse batches if sparse is true, which the dataset has to support
+	 */
+	public Prefetcher(Dataset data, int batches, Precision precision, boolean sparse) {
+		if(sparse && !data.sparse())
+			throw new RuntimeException("The dataset has no sparse inputs");
+		this.data = data;
+		this.batches = batches;
+		this.precision = precision;
+		this.sparse = sparse;
+
+		free.add(new Batch(data.features(), data.classes(), batches, precision, sparse));
+		free.add(new Batch(data.features(), data.classes(), batches, precision, sparse));
+	}
+
+	/**
+	 * starts gathering the batches of one epoch in the given order
+	 */
+	public void start(int[] order) {
+		if(worker != null)
+			throw new RuntimeException("The previous epoch is still being gathered");
+
+		remaining = (order.length + batches - 1) / batches;
+		int last = order.length % batches;
+		if(last != 0 && (rest == null || rest.getColumns() != last))
+			rest = new Batch(data.features(), data.classes(), last, precision, sparse);
+
+		worker = new Thread(() -> {
+			try {
+				for(int i = 0; i < order.length; i += batches) {
+					int end = Math.min(i + batches, order.length);
+					Batch batch = end - i == batches ? free.take() : rest;
+					if(sparse)
+						data.gather(order, i, end, batch.sparse, batch.out);
+					else
+						data.gather(order, i, end, batch.in, batch.out);
+					ready.put(batch);
+				}
+			} catch (InterruptedException e) {
+				return;
+			} catch (Throwable t) {
+				failure = t;
+			}
+			ready.add(END);
+		}, "prefetcher");
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/**
+	 * waits for the next batch of the epoch, or returns null after the last one
+	 * (the background thread has finished by the time the last batch is returned).
+	 * the batch returned by the previous call is handed back to be filled again,
+	 * so it must not be used anymore
+	 */
+	public Batch next() {
+		if(current != null && current != rest)
+			free.add(current);
+		current = null;
+
+		if(remaining == 0)
+			return null;
+
+		try {
+			Batch batch = ready.take();
+			if(batch == END) {
+				finish();
+				return null;
+			}
+			//the end of the epoch follows right after its last batch
+			if(--remaining == 0) {
+				ready.take();
+				finish();
+			}
+			current = batch;
+			return batch;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+	}
+
+	private void finish() throws InterruptedException {
+		worker.join();
+		worker = null;
+		remaining = 0;
+		if(failure != null)
+			throw new RuntimeException(failure);
+	}
+
+	/**
+	 * stops gathering batches, the prefetcher can not be started again afterwards
+	 */
+	public void close() {
+		if(worker != null) {
+			worker.interrupt();
+			worker = null;
+		}
+	}
+
+}
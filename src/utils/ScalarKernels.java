@@ -0,0 +1,147 @@
+package utils;
+
+/**
+ * the kernels as plain loops, which the JIT may still vectorize on its own
+ */
+final class ScalarKernels extends Kernels {
+
+	@Override
+	public String getName() {
+		return "scalar";
+	}
+
+	@Override
+	public void add(double[] a, double[] b, double[] dst, int n) {
+		for(int i = 0; i < n; i++) {
+			dst[i] = a[i] + b[i];
+		}
+	}
+
+	@Override
+	public void add(float[] a, float[] b, float[] dst, int n) {
+		for(int i = 0; i < n; i++) {
+			dst[i] = a[i] + b[i];
+		}
+	}
+
+	@Override
+	public void sub(double[] a, double[] b, double[] dst, int n) {
+		for(int i = 0; i < n; i++) {
+			dst[i] = a[i] - b[i];
+		}
+	}
+
+	@Override
+	public void sub(float[] a, float[] b, float[] dst, int n) {
+		for(int i = 0; i < n; i++) {
+			dst[i] = a[i] - b[i];
+		}
+	}
+
+	@Override
+	public void mul(double[] a, double[] b, double[] dst, int n) {
+		for(int i = 0; i < n; i++) {
+			dst[i] = a[i] * b[i];
+		}
+	}
+
+	@Override
+	public void mul(float[] a, float[] b, float[] dst, int n) {
+		for(int i = 0; i < n; i++) {
+			dst[i] = a[i] * b[i];
+		}
+	}
+
+	@Override
+	public void div(double[] a, double[] b, double[] dst, int n) {
+		for(int i = 0; i < n; i++) {
+			dst[i] = a[i] / b[i];
+		}
+	}
+
+	@Override
+	public void div(float[] a, float[] b, float[] dst, int n) {
+		for(int i = 0; i < n; i++) {
+			dst[i] = a[i] / b[i];
+		}
+	}
+
+	@Override
+	public void scale(double[] a, double s, double[] dst, int n) {
+		for(int i = 0; i < n; i++) {
+			dst[i] = s * a[i];
+		}
+	}
+
+	@Override
+	public void scale(float[] a, float s, float[] dst, int n) {
+		for(int i = 0; i < n; i++) {
+			dst[i] = s * a[i];
+		}
+	}
+
+	@Override
+	public void shift(double[] a, int off, double s, double[] dst, int n) {
+		for(int i = off; i < off + n; i++) {
+			dst[i] = a[i] + s;
+		}
+	}
+
+	@Override
+	public void shift(float[] a, int off, float s, float[] dst, int n) {
+		for(int i = off; i < off + n; i++) {
+			dst[i] = a[i] + s;
+		}
+	}
+
+	@Override
+	public void fill(double[] dst, double v, int n) {
+		for(int i = 0; i < n; i++) {
+			dst[i] = v;
+		}
+	}
+
+	@Override
+	public void fill(float[] dst, float v, int n) {
+		for(int i = 0; i < n; i++) {
+			dst[i] = v;
+		}
+	}
+
+	@Override
+	public double sum(double[] a, int off, int n) {
+		double sum = 0;
+		for(int i = off; i < off + n; i++) {
+			sum += a[i];
+		}
+		return sum;
+	}
+
+	@Override
+	public double sum(float[] a, int off, int n) {
+		double sum = 0;
+		for(int i = off; i < off + n; i++) {
+			sum += a[i];
+		}
+		return sum;
+	}
+
+	@Override
+	public double dot(double[] a, int aoff, double[] b, int boff, int n) {
+		double sum = 0;
+		for(int i = 0; i < n; i++) {
+			sum += a[aoff + i] * b[boff + i];
+		}
+		return sum;
+	}
+
+	@Override
+	public double dot(float[] a, int aoff, float[] b, int boff, int n) {
+		double sum = 0;
+		for(int i = 0; i < n; i++) {
+			sum += a[aoff + i] * b[boff + i];
+		}
+		return sum;
+	}
+
+}
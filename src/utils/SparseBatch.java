@@ -0,0 +1,162 @@
+package utils;
+
+import java.util.Arrays;
+
+/**
+ * a batch of inputs of which only the nonzero values are kept, column by column like the
+ * columns of the dense input matrix (compressed sparse columns): column j holds the values
+ * values[start[j]] to values[start[j + 1] - 1], which lie in the rows index[start[j]] on.
+ * a batch is filled one column after another with add and next, and its arrays only grow
+ * until they fit the largest batch, so refilling it does not allocate anything
+ */
+public class SparseBatch {
+	
+	final int rows, cols;
+	
+	/**
+	 * where the values of every column start, start[cols] is the amount of nonzero values
+	 */
+	final int[] start;
+	
+	/**
+	 * the row of every value, ascending within a column
+	 */
+	int[] index;
+	
+	/**
+	 * the values in double precision, null for single precision
+	 */
+	double[] values;
+	
+	/**
+	 * the values in single precision, null for double precision
+	 */
+	float[] floats;
+	
+	/**
+	 * the column that is filled next and the amount of values added so far
+	 */
+	private int column, size;
+	
+	public SparseBatch(int rows, int cols, Precision precision) {
+		this.rows = rows;
+		this.cols = cols;
+		this.start = new int[cols + 1];
+		//room for a fifth of the inputs, which covers most images of handwritten digits
+		int capacity = Math.max(16, rows * cols / 5);
+		this.index = new int[capacity];
+		if(precision == Precision.SINGLE)
+			floats = new float[capacity];
+		else
+			values = new double[capacity];
+	}
+	
+	public int getRows() {
+		return rows;
+	}
+	
+	public int getColumns() {
+		return cols;
+	}
+	
+	public Precision getPrecision() {
+		return floats != null ? Precision.SINGLE : Precision.DOUBLE;
+	}
+	
+	/**
+	 * the amount of nonzero values of the filled columns
+	 */
+	public int getNonzeros() {
+		return size;
+	}
+	
+	/**
+	 * starts filling the batch again from its first column
+	 */
+	public void clear() {
+		column = size = 0;
+	}
+	
+	/**
+	 * adds a value in the given row to the current column, the rows of a column have to ascend
+	 */
+	public void add(int row, double value) {
+		if(row < 0 || row >= rows || column >= cols)
+			throw new RuntimeException("Sparse batch index out of bounds");
+		if(value == 0)
+			return;
+		if(size == index.length)
+			grow();
+		index[size] = row;
+		if(values != null)
+			values[size] = value;
+		else
+			floats[size] = (float) value;
+		size++;
+	}
+	
+	/**
+	 * adds a value in single precision, which keeps its exact value in a batch of floats
+	 */
+	public void add(int row, float value) {
+		if(floats == null) {
+			add(row, (double) value);
+			return;
+		}
+		if(row < 0 || row >= rows || column >= cols)
+			throw new RuntimeException("Sparse batch index out of bounds");
+		if(value == 0)
+			return;
+		if(size == index.length)
+			grow();
+		index[size] = row;
+		floats[size] = value;
+		size++;
+	}
+	
+	/**
+	 * ends the current column, the following values go into the next one
+	 */
+	public void next() {
+		if(column >= cols)
+			throw new RuntimeException("Sparse batch index out of bounds");
+		start[++column] = size;
+	}
+	
+	/**
+	 * whether every column has been filled
+	 */
+	public boolean isComplete() {
+		return column == cols;
+	}
+	
+	/**
+	 * writes the batch as dense matrix into dst, or into a new matrix if dst is null
+	 */
+	public Matrix toDense(Matrix dst) {
+		if(!isComplete())
+			throw new RuntimeException("The sparse batch is not complete");
+		if(dst == null)
+			dst = new Matrix(rows, cols, getPrecision());
+		else if(dst.getRows() != rows || dst.getColumns() != cols)
+			throw new RuntimeException("Matrix size mismatch");
+		
+		dst.clear();
+		for(int j = 0; j < cols; j++) {
+			for(int p = start[j]; p < start[j + 1]; p++) {
+				dst.set(index[p], j, values != null ? values[p] : floats[p]);
+			}
+		}
+		return dst;
+	}
+	
+	private void grow() {
+		int capacity = 2 * index.length;
+		index = Arrays.copyOf(index, capacity);
+		if(values != null)
+			values = Arrays.copyOf(values, capacity);
+		else
+			floats = Arrays.copyOf(floats, capacity);
+	}
+
+}
@@ -0,0 +1,129 @@
+package utils;
+
+/**
+ * a matrix of which only the nonzero values are kept, row by row (compressed sparse rows):
+ * row i holds the values values[start[i]] to values[start[i + 1] - 1], which lie in the
+ * columns index[start[i]] on. it is meant for the weights of a pruned layer, of which every
+ * row (the weights of one neuron) is multiplied with the inputs, see Matrix.dense
+ */
+public class SparseMatrix {
+	
+	final int rows, cols;
+	
+	/**
+	 * where the values of every row start, start[rows] is the amount of nonzero values
+	 */
+	final int[] start;
+	
+	/**
+	 * the column of every value, ascending within a row
+	 */
+	final int[] index;
+	
+	/**
+	 * the values in double precision, null for single precision
+	 */
+	final double[] values;
+	
+	/**
+	 * the values in single precision, null for double precision
+	 */
+	final float[] floats;
+	
+	private SparseMatrix(int rows, int cols, int[] start, int[] index, double[] values, float[] floats) {
+		this.rows = rows;
+		this.cols = cols;
+		this.start = start;
+		this.index = index;
+		this.values = values;
+		this.floats = floats;
+	}
+	
+	/**
+	 * the nonzero values of the given matrix in its precision
+	 */
+	public static SparseMatrix of(Matrix m) {
+		int rows = m.getRows(), cols = m.getColumns();
+		int[] start = new int[rows + 1];
+		for(int i = 0; i < rows; i++) {
+			int count = 0;
+			for(int k = 0; k < cols; k++) {
+				if(m.get(i, k) != 0)
+					count++;
+			}
+			start[i + 1] = start[i] + count;
+		}
+		
+		int[] index = new int[start[rows]];
+		double[] values = m.getPrecision() == Precision.DOUBLE ? new double[start[rows]] : null;
+		float[] floats = m.getPrecision() == Precision.SINGLE ? new float[start[rows]] : null;
+		int p = 0;
+		for(int i = 0; i < rows; i++) {
+			for(int k = 0; k < cols; k++) {
+				double v = m.get(i, k);
+				if(v == 0)
+					continue;
+				index[p] = k;
+				if(values != null)
+					values[p] = v;
+				else
+					floats[p] = (float) v;
+				p++;
+			}
+		}
+		return new SparseMatrix(rows, cols, start, index, values, floats);
+	}
+	
+	public int getRows() {
+		return rows;
+	}
+	
+	public int getColumns() {
+		return cols;
+	}
+	
+	public Precision getPrecision() {
+		return floats != null ? Precision.SINGLE : Precision.DOUBLE;
+	}
+	
+	/**
+	 * the amount of nonzero values
+	 */
+	public int getNonzeros() {
+		return start[rows];
+	}
+	
+	/**
+	 * the share of the values that are nonzero
+	 */
+	public double getDensity() {
+		return rows * cols == 0 ? 0 : start[rows] / (double) ((long) rows * cols);
+	}
+	
+	/**
+	 * the amount of bytes of the values, their columns and the starts of the rows
+	 */
+	public long getBytes() {
+		int size = floats != null ? Float.BYTES : Double.BYTES;
+		return (long) start[rows] * (size + Integer.BYTES) + (long) Integer.BYTES * (rows + 1);
+	}
+	
+	/**
+	 * writes the matrix as dense matrix into dst, or into a new matrix if dst is null
+	 */
+	public Matrix toDense(Matrix dst) {
+		if(dst == null)
+			dst = new Matrix(rows, cols, getPrecision());
+		else if(dst.getRows() != rows || dst.getColumns() != cols)
+			throw new RuntimeException("Matrix size mismatch");
+		
+		dst.clear();
+		for(int i = 0; i < rows; i++) {
+			for(int p = start[i]; p < start[i + 1]; p++) {
+				dst.set(i, index[p], values != null ? values[p] : floats[p]);
+			}
+		}
+		return dst;
+	}
+
+}